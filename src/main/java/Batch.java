@@ -0,0 +1,59 @@
+package org.lichess.compression;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// Runs independent jobs over an index range on the common fork/join pool.
+// Work is split only while other workers are running out of tasks, so
+// small batches stay on few threads and large ones spread over all cores.
+public final class Batch {
+    private static final int SURPLUS = 3;
+
+    public static void forEach(int size, IntConsumer body) {
+        if (size <= 0) return;
+        if (size == 1) {
+            body.accept(0);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new Task(0, size, body, null));
+    }
+
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final IntConsumer body;
+        private final Task next;
+
+        Task(int lo, int hi, IntConsumer body, Task next) {
+            this.lo = lo;
+            this.hi = hi;
+            this.body = body;
+            this.next = next;
+        }
+
+        @Override
+        protected void compute() {
+            int l = lo, h = hi;
+
+            // Fork off the upper halves while there is demand for work.
+            Task forked = null;
+            while (h - l > 1 && getSurplusQueuedTaskCount() <= SURPLUS) {
+                int mid = (l + h) >>> 1;
+                forked = new Task(mid, h, body, forked);
+                forked.fork();
+                h = mid;
+            }
+
+            for (int i = l; i < h; i++) body.accept(i);
+
+            while (forked != null) {
+                if (forked.tryUnfork()) forked.compute();
+                else forked.join();
+                forked = forked.next;
+            }
+        }
+    }
+}
@@ -5,7 +5,7 @@ import java.nio.ByteBuffer;
 public class BitReader {
     private static final int[] BITMASK = BitOps.getBitMasks();
 
-    private final ByteBuffer bb;
+    private ByteBuffer bb;
     private int numRemainingBits = 0;
     private int pendingBits = 0;
 
@@ -13,6 +13,24 @@ public class BitReader {
         bb = ByteBuffer.wrap(bytes);
     }
 
+    // Starts reading at an arbitrary bit offset, e.g. one obtained from
+    // BitWriter.bitLength() while writing.
+    public BitReader(byte[] bytes, int bitOffset) {
+        reset(bytes, bitOffset);
+    }
+
+    // Reuses this reader for other input.
+    public void reset(byte[] bytes, int bitOffset) {
+        bb = ByteBuffer.wrap(bytes);
+        bb.position((bitOffset >>> 5) << 2);
+        numRemainingBits = 0;
+        pendingBits = 0;
+        if ((bitOffset & 31) != 0) {
+            readNext();
+            numRemainingBits -= bitOffset & 31;
+        }
+    }
+
     private void readNext() {
         if (bb.remaining() >= 4) {
             pendingBits = bb.getInt();
@@ -26,6 +44,32 @@ public class BitReader {
         }
     }
 
+    // Number of bits consumed so far.
+    public int bitPosition() {
+        return 8 * bb.position() - numRemainingBits;
+    }
+
+    // Number of bits left in the input, including padding.
+    public int remainingBits() {
+        return 8 * bb.limit() - bitPosition();
+    }
+
+    // Returns the next numBits bits (at most 24) without consuming them.
+    // Bits past the end of the input read as zeros.
+    public int peekBits(int numBits) {
+        if (numRemainingBits >= numBits) {
+            return (pendingBits >>> (numRemainingBits - numBits)) & BITMASK[numBits];
+        }
+
+        int neededBits = numBits - numRemainingBits;
+        int next = 0;
+        int position = bb.position();
+        for (int i = 0; i < 4 && position + i < bb.limit(); i++) {
+            next |= (bb.get(position + i) & 0xFF) << (24 - 8 * i);
+        }
+        return ((pendingBits & BITMASK[numRemainingBits]) << neededBits) | (next >>> (32 - neededBits));
+    }
+
     public int readBits(int numReqBits) {
         if (numRemainingBits >= numReqBits) {
             numRemainingBits -= numReqBits;
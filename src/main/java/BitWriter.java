@@ -21,6 +21,16 @@ public class BitWriter {
         }
     }
 
+    public void reset() {
+        buffer.clear();
+        numRemainingBits = 32;
+        pendingBits = 0;
+    }
+
+    public int bitLength() {
+        return 32 * buffer.size() + 32 - numRemainingBits;
+    }
+
     public byte[] toArray() {
         int numPendingBytes = (39 - numRemainingBits) >> 3;
         ByteBuffer bb = ByteBuffer.allocate(4 * buffer.size() + numPendingBytes);
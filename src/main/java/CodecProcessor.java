@@ -0,0 +1,247 @@
+package org.lichess.compression;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.lichess.compression.game.Encoder.DecodeResult;
+
+// Pipeline stage that applies an encode or decode function to a stream of
+// items, on up to parallelism workers, and publishes the results in input
+// order.
+//
+// At most bufferSize items are held at any time (in flight or waiting for
+// downstream demand). Upstream is asked for one more item only when one
+// has been published, so a slow consumer throttles the producer and
+// memory stays bounded regardless of stream length.
+//
+// A function that throws or returns null (e.g. encoding an invalid game)
+// cancels upstream and fails the stream.
+public final class CodecProcessor<T, R> implements Flow.Processor<T, R> {
+    private final Function<? super T, ? extends R> function;
+    private final int parallelism;
+    private final int bufferSize;
+    private final Executor executor;
+
+    private final ConcurrentLinkedQueue<Item<T>> pending = new ConcurrentLinkedQueue<Item<T>>();
+    // Finished results, in a ring indexed by sequence number.
+    private final AtomicReferenceArray<R> results;
+
+    private final AtomicInteger workers = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super R> downstream;
+
+    private volatile long received = 0;
+    private long published = 0;
+
+    private volatile boolean done = false;
+    private volatile boolean cancelled = false;
+    private volatile Throwable error;
+    private boolean terminated = false;
+
+    public CodecProcessor(Function<? super T, ? extends R> function, int parallelism, int bufferSize, Executor executor) {
+        if (parallelism <= 0 || bufferSize < parallelism) throw new IllegalArgumentException();
+        this.function = function;
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+        this.results = new AtomicReferenceArray<R>(bufferSize);
+    }
+
+    public CodecProcessor(Function<? super T, ? extends R> function, int parallelism) {
+        this(function, parallelism, 4 * parallelism, ForkJoinPool.commonPool());
+    }
+
+    public static CodecProcessor<String[], byte[]> encodeGames(int parallelism) {
+        return new CodecProcessor<String[], byte[]>(
+            org.lichess.compression.game.Encoder::encode, parallelism);
+    }
+
+    public static <T> CodecProcessor<T, DecodeResult> decodeGames(Function<T, byte[]> bytes, ToIntFunction<T> plies, int parallelism) {
+        return new CodecProcessor<T, DecodeResult>(
+            t -> org.lichess.compression.game.Encoder.decode(bytes.apply(t), plies.applyAsInt(t)), parallelism);
+    }
+
+    public static <T> CodecProcessor<T, byte[]> encodeClocks(Function<T, int[]> centis, ToIntFunction<T> startTime, int parallelism) {
+        return new CodecProcessor<T, byte[]>(
+            t -> org.lichess.compression.clock.Encoder.encode(centis.apply(t), startTime.applyAsInt(t)), parallelism);
+    }
+
+    public static <T> CodecProcessor<T, int[]> decodeClocks(Function<T, byte[]> bytes, ToIntFunction<T> startTime, int parallelism) {
+        return new CodecProcessor<T, int[]>(
+            t -> org.lichess.compression.clock.Encoder.decode(bytes.apply(t), startTime.applyAsInt(t)), parallelism);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        subscription.request(bufferSize);
+    }
+
+    @Override
+    public void onNext(T item) {
+        // Calls to onNext() are serialized by the publisher.
+        long seq = received;
+        pending.offer(new Item<T>(seq, item));
+        received = seq + 1;
+        spawnWorker();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        if (downstream != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {}
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("CodecProcessor supports only one subscriber"));
+            return;
+        }
+
+        downstream = subscriber;
+        subscriber.onSubscribe(new Flow.Subscription() {
+            public void request(long n) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("non-positive request: " + n));
+                    return;
+                }
+                long r, next;
+                do {
+                    r = requested.get();
+                    next = r + n < 0 ? Long.MAX_VALUE : r + n;
+                } while (!requested.compareAndSet(r, next));
+                drain();
+            }
+
+            public void cancel() {
+                cancelled = true;
+                Flow.Subscription s = upstream;
+                if (s != null) s.cancel();
+            }
+        });
+        drain();
+    }
+
+    private void spawnWorker() {
+        while (true) {
+            int active = workers.get();
+            if (active >= parallelism || pending.isEmpty()) return;
+            if (workers.compareAndSet(active, active + 1)) {
+                executor.execute(this::work);
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Item<T> item = pending.poll();
+            if (item == null) {
+                workers.decrementAndGet();
+                // Items offered after the poll but before the decrement
+                // would otherwise be stranded.
+                spawnWorker();
+                return;
+            }
+
+            if (cancelled || error != null) continue;
+
+            R result;
+            try {
+                result = function.apply(item.value);
+            } catch (Throwable e) {
+                fail(e);
+                continue;
+            }
+
+            if (result == null) {
+                fail(new NullPointerException("no result for item " + item.seq));
+                continue;
+            }
+
+            results.set((int) (item.seq % bufferSize), result);
+            drain();
+        }
+    }
+
+    private void fail(Throwable e) {
+        error = e;
+        Flow.Subscription s = upstream;
+        if (s != null) s.cancel();
+        drain();
+    }
+
+    // Publishes ready results in order. Only one thread at a time gets past
+    // the wip counter.
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super R> subscriber = downstream;
+            if (subscriber != null && !terminated && !cancelled) {
+                Throwable e = error;
+                if (e != null) {
+                    terminated = true;
+                    subscriber.onError(e);
+                } else {
+                    long emitted = 0;
+                    long limit = requested.get();
+                    while (emitted < limit) {
+                        int slot = (int) (published % bufferSize);
+                        R result = results.get(slot);
+                        if (result == null) break;
+                        results.set(slot, null);
+                        published++;
+                        emitted++;
+                        subscriber.onNext(result);
+                        upstream.request(1);
+                    }
+                    if (emitted > 0) requested.addAndGet(-emitted);
+
+                    if (done && published == received) {
+                        terminated = true;
+                        subscriber.onComplete();
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static final class Item<T> {
+        final long seq;
+        final T value;
+
+        Item(long seq, T value) {
+            this.seq = seq;
+            this.value = value;
+        }
+    }
+}
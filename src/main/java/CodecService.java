@@ -0,0 +1,171 @@
+package org.lichess.compression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.lichess.compression.game.CodecContext;
+import org.lichess.compression.game.Encoder.DecodeResult;
+
+// Coalesces encode and decode requests from many threads. Requests go into
+// a bounded queue and are processed in small batches by a few dedicated
+// worker threads. Each worker keeps its own warm CodecContext.
+//
+// A worker waits at most maxLatencyNanos after the first request of a batch
+// for the batch to fill up to maxBatchSize.
+//
+// A fatal error (like OutOfMemoryError) fails its own request and the rest
+// of the batch, and then ends the worker. When the last worker is gone, the
+// service closes itself, so that no request waits forever.
+public final class CodecService implements AutoCloseable {
+    private final BlockingQueue<Job<?>> queue;
+    private final Thread workers[];
+    private final int maxBatchSize;
+    private final long maxLatencyNanos;
+
+    private final AtomicInteger liveWorkers;
+    private final LongAdder batches = new LongAdder();
+
+    private volatile boolean closed = false;
+
+    public CodecService(int numWorkers, int queueCapacity, int maxBatchSize, long maxLatencyNanos) {
+        if (numWorkers <= 0 || queueCapacity <= 0 || maxBatchSize <= 0 || maxLatencyNanos < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.queue = new ArrayBlockingQueue<Job<?>>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyNanos = maxLatencyNanos;
+
+        this.liveWorkers = new AtomicInteger(numWorkers);
+        this.workers = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new Thread(this::work, "codec-service-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public CompletableFuture<byte[]> encodeGame(String pgnMoves[]) {
+        return submit(context -> org.lichess.compression.game.Encoder.encode(context, pgnMoves));
+    }
+
+    public CompletableFuture<DecodeResult> decodeGame(byte input[], int plies) {
+        return submit(context -> org.lichess.compression.game.Encoder.decode(context, input, plies));
+    }
+
+    public CompletableFuture<byte[]> encodeClock(int centis[], int startTime) {
+        return submit(context -> org.lichess.compression.clock.Encoder.encode(centis, startTime));
+    }
+
+    public CompletableFuture<int[]> decodeClock(byte bytes[], int startTime) {
+        return submit(context -> org.lichess.compression.clock.Encoder.decode(bytes, startTime));
+    }
+
+    // Number of batches processed so far.
+    public long batches() {
+        return batches.sum();
+    }
+
+    // Pending requests fail with a RejectedExecutionException. Requests that
+    // are already being processed complete normally.
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) worker.interrupt();
+        failPending();
+    }
+
+    <T> CompletableFuture<T> submit(Function<CodecContext, T> task) {
+        Job<T> job = new Job<T>(task);
+        if (closed || !queue.offer(job)) {
+            job.future.completeExceptionally(new RejectedExecutionException(closed ? "codec service closed" : "codec service queue full"));
+        } else if (closed) {
+            // Raced with close().
+            failPending();
+        }
+        return job.future;
+    }
+
+    private void failPending() {
+        Job<?> job;
+        while ((job = queue.poll()) != null) {
+            job.future.completeExceptionally(new RejectedExecutionException("codec service closed"));
+        }
+    }
+
+    private void work() {
+        try {
+            work(new CodecContext(), new ArrayList<Job<?>>(maxBatchSize));
+        } finally {
+            if (liveWorkers.decrementAndGet() == 0) {
+                closed = true;
+                failPending();
+            }
+        }
+    }
+
+    private void work(CodecContext context, List<Job<?>> batch) {
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+
+                long deadline = System.nanoTime() + maxLatencyNanos;
+                while (batch.size() < maxBatchSize) {
+                    // Take whatever is already queued, then wait for more
+                    // until the deadline.
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    Job<?> job = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (job == null) break;
+                    batch.add(job);
+                }
+            } catch (InterruptedException e) {
+                // Closing. Still finish the jobs already taken.
+            }
+
+            if (batch.size() > 0) batches.increment();
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    batch.get(i).runWith(context);
+                } catch (Error e) {
+                    // Fatal: fail the rest of the batch and end the worker.
+                    for (int j = i + 1; j < batch.size(); j++) batch.get(j).future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private static final class Job<T> {
+        final Function<CodecContext, T> task;
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        Job(Function<CodecContext, T> task) {
+            this.task = task;
+        }
+
+        // Rethrows fatal errors after failing the future.
+        void runWith(CodecContext context) {
+            try {
+                future.complete(task.apply(context));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+                if (isFatal(e)) throw (Error) e;
+            }
+        }
+
+        private static boolean isFatal(Throwable e) {
+            return e instanceof VirtualMachineError || e instanceof ThreadDeath || e instanceof LinkageError;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package org.lichess.compression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded cache of decoded values, keyed by the encoded bytes and an int
+// (the number of plies, or the start time for clocks). Meant for hot games
+// that are decoded over and over, like a broadcast open in many tabs.
+//
+// Entries are spread over independently locked stripes. Each stripe is a
+// segmented LRU: new entries go to a probation segment and are promoted to
+// the protected segment when hit again, so a burst of one-off lookups can
+// not flush the hot games. The total size is bounded by a byte budget,
+// using the weights given to put().
+//
+// Cached values are shared between callers and must not be modified.
+public final class DecodeCache<V> {
+    // Share of each stripe reserved for entries that were hit at least once.
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final Stripe<V> stripes[];
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder prefixHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DecodeCache(long maxBytes) {
+        this(maxBytes, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    // The number of stripes is rounded up to a power of two.
+    @SuppressWarnings("unchecked")
+    public DecodeCache(long maxBytes, int numStripes) {
+        if (maxBytes <= 0 || numStripes <= 0) throw new IllegalArgumentException();
+
+        int n = numStripes == 1 ? 1 : Integer.highestOneBit(numStripes - 1) << 1;
+        this.stripes = (Stripe<V>[]) new Stripe<?>[n];
+        for (int i = 0; i < n; i++) stripes[i] = new Stripe<V>(Math.max(1, maxBytes / n));
+        this.mask = n - 1;
+    }
+
+    public static final class Entry<V> {
+        public final V value;
+
+        // Number of bits of the input that were decoded into the value.
+        public final int bitLength;
+
+        private final Key id;
+        private final long prefixHash;
+        private final long weight;
+
+        private Entry(Key id, long prefixHash, int bitLength, V value, long weight) {
+            this.id = id;
+            this.prefixHash = prefixHash;
+            this.bitLength = bitLength;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        // The key the value was decoded for.
+        public int key() {
+            return id.key;
+        }
+
+        // Whether the decoded bits of this entry are a prefix of input.
+        private boolean isPrefixOf(byte input[], int key) {
+            byte own[] = id.input;
+            if (id.key != key || bitLength > 8 * input.length) return false;
+            int fullBytes = bitLength >>> 3;
+            if (Arrays.compare(own, 0, fullBytes, input, 0, fullBytes) != 0) return false;
+            int tail = bitLength & 7;
+            if (tail == 0) return true;
+            int tailMask = 0xff00 >>> tail;
+            return ((own[fullBytes] ^ input[fullBytes]) & tailMask) == 0;
+        }
+    }
+
+    // Exact identity of an entry: all encoded bytes and the key.
+    private static final class Key {
+        final byte input[];
+        final int key;
+        final int hash;
+
+        Key(byte input[], int key) {
+            this.input = input;
+            this.key = key;
+            this.hash = 31 * Arrays.hashCode(input) + key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && key == other.key && Arrays.equals(input, other.input);
+        }
+    }
+
+    public V get(byte input[], int key) {
+        Entry<V> entry = exact(input, key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    // Finds an entry whose decoded bits are a prefix of input, and whose
+    // encoded bytes were at most maxShrink bytes shorter than input. Used to
+    // extend a cached result by a few moves instead of decoding from
+    // scratch. Only counts prefix hits: a failed prefix lookup usually
+    // follows a failed get(), which already counted the miss.
+    public Entry<V> getPrefix(byte input[], int key, int maxShrink) {
+        Entry<V> entry = prefix(input, key, maxShrink);
+        if (entry != null) prefixHits.increment();
+        return entry;
+    }
+
+    // The entry for input and key if there is one, or else a prefix entry
+    // for prefixKey as with getPrefix(). A negative maxShrink skips the
+    // prefix lookup. Counts one hit, prefix hit or miss.
+    public Entry<V> lookup(byte input[], int key, int prefixKey, int maxShrink) {
+        Entry<V> entry = exact(input, key);
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+        entry = prefix(input, prefixKey, maxShrink);
+        if (entry != null) {
+            prefixHits.increment();
+            return entry;
+        }
+        misses.increment();
+        return null;
+    }
+
+    private Entry<V> exact(byte input[], int key) {
+        long prefixHash = prefixHash(input, input.length, key);
+        return stripe(prefixHash).get(new Key(input, key));
+    }
+
+    private Entry<V> prefix(byte input[], int key, int maxShrink) {
+        for (int length = input.length; length >= Math.max(0, input.length - maxShrink); length--) {
+            long prefixHash = prefixHash(input, length, key);
+            Entry<V> entry = stripe(prefixHash).getPrefix(prefixHash, length, input, key);
+            if (entry != null) return entry;
+        }
+        return null;
+    }
+
+    public void put(byte input[], int key, V value, long weight) {
+        put(input, 8 * input.length, key, value, weight);
+    }
+
+    public void put(byte input[], int bitLength, int key, V value, long weight) {
+        long prefixHash = prefixHash(input, input.length, key);
+        Entry<V> entry = new Entry<V>(new Key(input.clone(), key), prefixHash, bitLength, value, weight + input.length);
+        evictions.add(stripe(prefixHash).put(entry));
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    // Lookups answered by extending a shorter cached result.
+    public long prefixHits() {
+        return prefixHits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public long weightedSize() {
+        long size = 0;
+        for (Stripe<V> stripe: stripes) size += stripe.weightedSize();
+        return size;
+    }
+
+    private Stripe<V> stripe(long prefixHash) {
+        return stripes[(int) (prefixHash >>> 32) & mask];
+    }
+
+    // Hash for the prefix index. The last byte is left out, so that an
+    // input can be found by any longer input that continues its bits.
+    // Siblings that differ only in the last byte share it, and are told
+    // apart by their full Key.
+    private static long prefixHash(byte input[], int length, int key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length - 1; i++) {
+            h = (h ^ input[i]) * 0x100000001b3L;
+        }
+        h ^= (long) key << 32 | (length & 0xffffffffL);
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static final class Stripe<V> {
+        private final long maxWeight;
+        private final long maxProtectedWeight;
+
+        // Both in access order, least recently used first.
+        private final LinkedHashMap<Key, Entry<V>> probation = new LinkedHashMap<Key, Entry<V>>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Entry<V>> protectedSegment = new LinkedHashMap<Key, Entry<V>>(16, 0.75f, true);
+        private long probationWeight = 0;
+        private long protectedWeight = 0;
+
+        // All entries of both segments by prefix hash.
+        private final HashMap<Long, List<Entry<V>>> prefixIndex = new HashMap<Long, List<Entry<V>>>();
+
+        Stripe(long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.maxProtectedWeight = maxWeight * PROTECTED_PERCENT / 100;
+        }
+
+        synchronized Entry<V> get(Key id) {
+            Entry<V> entry = protectedSegment.get(id);
+            if (entry != null) return entry;
+
+            entry = probation.get(id);
+            if (entry != null) promote(entry);
+            return entry;
+        }
+
+        synchronized Entry<V> getPrefix(long prefixHash, int length, byte input[], int key) {
+            List<Entry<V>> candidates = prefixIndex.get(prefixHash);
+            if (candidates == null) return null;
+            for (Entry<V> candidate: candidates) {
+                if (candidate.id.input.length == length && candidate.isPrefixOf(input, key)) {
+                    // Count as an access of the entry.
+                    if (protectedSegment.get(candidate.id) == null) promote(candidate);
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        // Second hit: promote, demoting the least recently used protected
+        // entries if necessary.
+        private void promote(Entry<V> entry) {
+            probation.remove(entry.id);
+            probationWeight -= entry.weight;
+            protectedSegment.put(entry.id, entry);
+            protectedWeight += entry.weight;
+
+            Iterator<Map.Entry<Key, Entry<V>>> it = protectedSegment.entrySet().iterator();
+            while (protectedWeight > maxProtectedWeight && it.hasNext()) {
+                Map.Entry<Key, Entry<V>> eldest = it.next();
+                if (eldest.getValue() == entry) continue;
+                it.remove();
+                protectedWeight -= eldest.getValue().weight;
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationWeight += eldest.getValue().weight;
+            }
+        }
+
+        // Returns the number of evicted entries.
+        synchronized int put(Entry<V> entry) {
+            Entry<V> previous = probation.remove(entry.id);
+            if (previous != null) {
+                probationWeight -= previous.weight;
+                unindex(previous);
+            }
+            previous = protectedSegment.remove(entry.id);
+            if (previous != null) {
+                protectedWeight -= previous.weight;
+                unindex(previous);
+            }
+
+            if (entry.weight > maxWeight) return 0;
+
+            probation.put(entry.id, entry);
+            probationWeight += entry.weight;
+            prefixIndex.computeIfAbsent(entry.prefixHash, h -> new ArrayList<Entry<V>>(1)).add(entry);
+
+            int evicted = 0;
+            evicted += evict(probation, false);
+            evicted += evict(protectedSegment, true);
+            return evicted;
+        }
+
+        private int evict(LinkedHashMap<Key, Entry<V>> segment, boolean isProtected) {
+            int evicted = 0;
+            Iterator<Entry<V>> it = segment.values().iterator();
+            while (probationWeight + protectedWeight > maxWeight && it.hasNext()) {
+                Entry<V> eldest = it.next();
+                it.remove();
+                unindex(eldest);
+                if (isProtected) protectedWeight -= eldest.weight;
+                else probationWeight -= eldest.weight;
+                evicted++;
+            }
+            return evicted;
+        }
+
+        private void unindex(Entry<V> entry) {
+            List<Entry<V>> entries = prefixIndex.get(entry.prefixHash);
+            entries.remove(entry);
+            if (entries.isEmpty()) prefixIndex.remove(entry.prefixHash);
+        }
+
+        synchronized long weightedSize() {
+            return probationWeight + protectedWeight;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.lichess.compression;
+
+import org.lichess.compression.game.CodecContext;
+import org.lichess.compression.game.Encoder.DecodeResult;
+
+// Moves and clock histories of a game in a single blob, so that loading a
+// game is one read instead of one per column. Everything is written into
+// one bit stream:
+//
+//   varint plies
+//   1 bit  has clocks
+//   varint white start time, varint black start time (if has clocks)
+//   moves, as in game.Encoder
+//   for white, then black (if has clocks):
+//     1 bit  has readings
+//     clock readings, as in clock.Encoder
+//
+// The number of plies is part of the blob, so it does not need to be
+// stored separately.
+public final class GameRecord {
+    public final int plies;
+    public final DecodeResult moves;
+
+    // Null if the game has no clocks.
+    public final int whiteCentis[];
+    public final int blackCentis[];
+
+    // In centiseconds, and 0 if the game has no clocks.
+    public final int whiteStartTime;
+    public final int blackStartTime;
+
+    private GameRecord(DecodeResult moves, int whiteCentis[], int blackCentis[], int whiteStartTime, int blackStartTime) {
+        this.plies = moves.pgnMoves.length;
+        this.moves = moves;
+        this.whiteCentis = whiteCentis;
+        this.blackCentis = blackCentis;
+        this.whiteStartTime = whiteStartTime;
+        this.blackStartTime = blackStartTime;
+    }
+
+    public boolean hasClocks() {
+        return whiteCentis != null;
+    }
+
+    public static byte[] encode(String pgnMoves[]) {
+        return encode(pgnMoves, null, null, 0, 0);
+    }
+
+    // Returns null if the moves are not legal. Clocks are either both null
+    // or both present.
+    public static byte[] encode(String pgnMoves[], int whiteCentis[], int blackCentis[], int whiteStartTime, int blackStartTime) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            return encode(context, pgnMoves, whiteCentis, blackCentis, whiteStartTime, blackStartTime);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static byte[] encode(CodecContext context, String pgnMoves[], int whiteCentis[], int blackCentis[], int whiteStartTime, int blackStartTime) {
+        boolean hasClocks = whiteCentis != null;
+        if (hasClocks != (blackCentis != null)) throw new IllegalArgumentException("need clocks for both sides or none");
+
+        BitWriter writer = context.writer();
+        writer.reset();
+
+        VarIntEncoder.writeUnsigned(pgnMoves.length, writer);
+        writer.writeBits(hasClocks ? 1 : 0, 1);
+        if (hasClocks) {
+            VarIntEncoder.writeUnsigned(whiteStartTime, writer);
+            VarIntEncoder.writeUnsigned(blackStartTime, writer);
+        }
+
+        if (!org.lichess.compression.game.Encoder.encode(context, pgnMoves, writer)) return null;
+
+        if (hasClocks) {
+            writeClocks(whiteCentis, whiteStartTime, writer);
+            writeClocks(blackCentis, blackStartTime, writer);
+        }
+
+        return writer.toArray();
+    }
+
+    private static void writeClocks(int centis[], int startTime, BitWriter writer) {
+        writer.writeBits(centis.length > 0 ? 1 : 0, 1);
+        if (centis.length > 0) org.lichess.compression.clock.Encoder.encode(centis, startTime, writer);
+    }
+
+    public static GameRecord decode(byte input[]) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            return decode(context, input);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static GameRecord decode(CodecContext context, byte input[]) {
+        BitReader reader = context.reader();
+        reader.reset(input, 0);
+
+        int plies = VarIntEncoder.readUnsigned(reader);
+        boolean hasClocks = reader.readBits(1) != 0;
+        int whiteStartTime = hasClocks ? VarIntEncoder.readUnsigned(reader) : 0;
+        int blackStartTime = hasClocks ? VarIntEncoder.readUnsigned(reader) : 0;
+
+        DecodeResult moves = org.lichess.compression.game.Encoder.decode(context, reader, plies);
+
+        int whiteCentis[] = hasClocks ? readClocks(reader, whiteStartTime) : null;
+        int blackCentis[] = hasClocks ? readClocks(reader, blackStartTime) : null;
+
+        return new GameRecord(moves, whiteCentis, blackCentis, whiteStartTime, blackStartTime);
+    }
+
+    private static int[] readClocks(BitReader reader, int startTime) {
+        if (reader.readBits(1) == 0) return new int[0];
+        return org.lichess.compression.clock.Encoder.decode(reader, startTime);
+    }
+}
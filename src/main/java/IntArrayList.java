@@ -24,6 +24,14 @@ public final class IntArrayList {
         data[index++] = elt;
     }
 
+    public void clear() {
+        index = 0;
+    }
+
+    public int get(int i) {
+        return data[i];
+    }
+
     public int size() {
        return index;
     }
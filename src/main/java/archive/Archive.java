@@ -0,0 +1,151 @@
+package org.lichess.compression.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A file of encoded games. Each record is:
+//
+//   int     length of the rest of the record
+//   short   number of tags, followed by name and value of each (UTF)
+//   short   number of plies
+//   short   length and bytes of the encoded moves
+//   int     clock start time in centiseconds (-1 without clocks)
+//   short   length and bytes of the encoded white clock history
+//   short   length and bytes of the encoded black clock history
+//
+// All numbers are big endian. Shorts are unsigned, and records with more
+// tags or plies, or longer byte arrays, than fit are rejected.
+public class Archive {
+    public static class Record {
+        public final Map<String, String> tags;
+        public final int plies;
+        public final byte moves[];
+        public final int startTime;
+        public final byte whiteClock[];
+        public final byte blackClock[];
+
+        public Record(Map<String, String> tags, int plies, byte moves[], int startTime, byte whiteClock[], byte blackClock[]) {
+            this.tags = tags;
+            this.plies = plies;
+            this.moves = moves;
+            this.startTime = startTime;
+            this.whiteClock = whiteClock;
+            this.blackClock = blackClock;
+        }
+
+        public boolean hasClocks() {
+            return startTime >= 0;
+        }
+    }
+
+    public static class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+        private final DataOutputStream record;
+        private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(1024);
+        private long bytesWritten = 0;
+
+        public Writer(WritableByteChannel channel) {
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            this.record = new DataOutputStream(recordBuffer);
+        }
+
+        // Throws IllegalArgumentException without writing anything if the
+        // record does not fit the format.
+        public void write(Record r) throws IOException {
+            recordBuffer.reset();
+            writeUnsignedShort(record, r.tags.size(), "number of tags");
+            for (Map.Entry<String, String> tag : r.tags.entrySet()) {
+                writeString(record, tag.getKey());
+                writeString(record, tag.getValue());
+            }
+            writeUnsignedShort(record, r.plies, "number of plies");
+            writeBytes(record, r.moves);
+            record.writeInt(r.startTime);
+            writeBytes(record, r.whiteClock);
+            writeBytes(record, r.blackClock);
+
+            out.writeInt(recordBuffer.size());
+            recordBuffer.writeTo(out);
+            bytesWritten += 4 + recordBuffer.size();
+        }
+
+        public long bytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private static void writeBytes(DataOutputStream out, byte bytes[]) throws IOException {
+            writeUnsignedShort(out, bytes.length, "byte length");
+            out.write(bytes);
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            try {
+                out.writeUTF(value);
+            } catch (UTFDataFormatException e) {
+                throw new IllegalArgumentException("tag too long", e);
+            }
+        }
+
+        private static void writeUnsignedShort(DataOutputStream out, int value, String what) throws IOException {
+            if (value < 0 || value > 0xffff) throw new IllegalArgumentException(what + " out of range: " + value);
+            out.writeShort(value);
+        }
+    }
+
+    public static class Reader implements AutoCloseable {
+        private final DataInputStream in;
+
+        public Reader(ReadableByteChannel channel) {
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        }
+
+        // Returns the next record, or null at the end of the archive.
+        public Record read() throws IOException {
+            try {
+                in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+
+            int numTags = in.readUnsignedShort();
+            Map<String, String> tags = new LinkedHashMap<String, String>();
+            for (int i = 0; i < numTags; i++) {
+                String name = in.readUTF();
+                tags.put(name, in.readUTF());
+            }
+            int plies = in.readUnsignedShort();
+            byte moves[] = readBytes(in);
+            int startTime = in.readInt();
+            byte whiteClock[] = readBytes(in);
+            byte blackClock[] = readBytes(in);
+            return new Record(tags, plies, moves, startTime, whiteClock, blackClock);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            byte bytes[] = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+}
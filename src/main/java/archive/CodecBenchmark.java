@@ -0,0 +1,126 @@
+package org.lichess.compression.archive;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.game.CanonicalHuffman;
+import org.lichess.compression.game.CodecContext;
+import org.lichess.compression.game.ContextHuffman;
+import org.lichess.compression.game.Encoder;
+import org.lichess.compression.game.GameCodec;
+import org.lichess.compression.game.GameCodecs;
+import org.lichess.compression.game.HuffmanTrainer;
+import org.lichess.compression.game.Rans;
+
+// Compares the registered game codecs on the games of a PGN file: size,
+// and encoding and decoding speed on a single thread.
+public class CodecBenchmark {
+    public static class Result {
+        public final GameCodec codec;
+        public final long games;
+        public final long plies;
+        public final long bytes;
+        public final long encodeNanos;
+        public final long decodeNanos;
+
+        Result(GameCodec codec, long games, long plies, long bytes, long encodeNanos, long decodeNanos) {
+            this.codec = codec;
+            this.games = games;
+            this.plies = plies;
+            this.bytes = bytes;
+            this.encodeNanos = encodeNanos;
+            this.decodeNanos = decodeNanos;
+        }
+
+        public double bitsPerMove() {
+            return 8.0 * bytes / plies;
+        }
+
+        public double encodePliesPerSecond() {
+            return plies * 1e9 / encodeNanos;
+        }
+
+        public double decodePliesPerSecond() {
+            return plies * 1e9 / decodeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "codec %d: %d bytes, %.2f bytes per game, %.3f bits per move, encode %.0f plies/s, decode %.0f plies/s",
+                codec.id(), bytes, (double) bytes / games, bitsPerMove(), encodePliesPerSecond(), decodePliesPerSecond());
+        }
+    }
+
+    // Encodes and decodes all games rounds times, and reports the fastest
+    // round. The header byte of each game is not counted. The codec does not
+    // need to be registered.
+    public static Result run(GameCodec codec, List<String[]> games, int rounds) {
+        CodecContext context = new CodecContext();
+        byte encoded[][] = new byte[games.size()][];
+        long plies = 0, bytes = 0;
+        long encodeNanos = Long.MAX_VALUE, decodeNanos = Long.MAX_VALUE;
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < encoded.length; i++) encoded[i] = GameCodecs.encode(context, codec, games.get(i));
+            encodeNanos = Math.min(encodeNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < encoded.length; i++) {
+                BitReader reader = context.reader();
+                reader.reset(encoded[i], 8);
+                codec.decode(context, reader, games.get(i).length);
+            }
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+        }
+
+        for (int i = 0; i < encoded.length; i++) {
+            plies += games.get(i).length;
+            bytes += encoded[i].length - 1;
+        }
+
+        return new Result(codec, games.size(), plies, bytes, encodeNanos, decodeNanos);
+    }
+
+    public static List<String[]> read(PgnReader reader) throws IOException {
+        List<String[]> games = new ArrayList<String[]>();
+        PgnReader.Game game;
+        while ((game = reader.next()) != null) {
+            if (Encoder.encode(game.moves) != null) games.add(game.moves);
+        }
+        return games;
+    }
+
+    public static void main(String args[]) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: CodecBenchmark <input.pgn> [rounds]");
+            System.exit(1);
+        }
+
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<String[]> games;
+        try (FileChannel in = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ)) {
+            games = read(new PgnReader(in));
+        }
+
+        for (GameCodec codec: GameCodecs.all()) {
+            System.out.println(run(codec, games, rounds));
+        }
+
+        // Unregistered codecs, under an arbitrary header id. The context
+        // tables are fit to the same games, so their result is optimistic.
+        HuffmanTrainer trainer = new HuffmanTrainer(true);
+        trainer.addAll(games);
+        ContextHuffman tables = ContextHuffman.fit(trainer.contextCounts(), CanonicalHuffman.MAX_BITS);
+        System.out.println("context: " + run(GameCodecs.contextHuffman(GameCodecs.MAX_ID, tables), games, rounds));
+        System.out.println("rans: " + run(GameCodecs.rans(GameCodecs.MAX_ID, Rans.DEFAULT), games, rounds));
+        System.out.println("history: " + run(GameCodecs.history(GameCodecs.MAX_ID), games, rounds));
+    }
+}
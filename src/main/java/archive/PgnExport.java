@@ -0,0 +1,120 @@
+package org.lichess.compression.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+// Converts an archive back to PGN. Games are decoded in parallel, and a
+// reorder buffer of pending results keeps the output in archive order even
+// though workers finish out of order.
+public class PgnExport {
+    public static long run(Archive.Reader reader, OutputStream out) throws IOException {
+        int window = 64 * ForkJoinPool.getCommonPoolParallelism();
+        ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<CompletableFuture<byte[]>>(window);
+        long games = 0;
+
+        Archive.Record record;
+        while ((record = reader.read()) != null) {
+            if (pending.size() == window) out.write(pending.poll().join());
+            Archive.Record r = record;
+            pending.add(CompletableFuture.supplyAsync(() -> pgn(r)));
+            games++;
+        }
+
+        while (!pending.isEmpty()) out.write(pending.poll().join());
+        return games;
+    }
+
+    static byte[] pgn(Archive.Record record) {
+        StringBuilder builder = new StringBuilder(1024);
+
+        for (Map.Entry<String, String> tag : record.tags.entrySet()) {
+            builder.append('[').append(tag.getKey()).append(" \"");
+            String value = tag.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') builder.append('\\');
+                builder.append(c);
+            }
+            builder.append("\"]\n");
+        }
+        builder.append('\n');
+
+        String moves[] = org.lichess.compression.game.Encoder.decode(record.moves, record.plies).pgnMoves;
+
+        int white[] = null, black[] = null;
+        if (record.hasClocks()) {
+            white = org.lichess.compression.clock.Encoder.decode(record.whiteClock, record.startTime);
+            black = org.lichess.compression.clock.Encoder.decode(record.blackClock, record.startTime);
+        }
+
+        boolean comment = false;
+        for (int i = 0; i < moves.length; i++) {
+            if ((i & 1) == 0) builder.append((i >> 1) + 1).append(". ");
+            else if (comment) builder.append((i >> 1) + 1).append("... ");
+            builder.append(moves[i]).append(' ');
+
+            int clocks[] = (i & 1) == 0 ? white : black;
+            comment = clocks != null && (i >> 1) < clocks.length;
+            if (comment) {
+                builder.append("{ [%clk ");
+                appendClock(builder, clocks[i >> 1]);
+                builder.append("] } ");
+            }
+        }
+
+        String result = record.tags.get("Result");
+        builder.append(result == null ? "*" : result).append("\n\n");
+
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendClock(StringBuilder builder, int centis) {
+        // Round to the nearest second. Decoded times can be a few
+        // centiseconds off.
+        int seconds = (Math.max(0, centis) + 50) / 100;
+        builder.append(seconds / 3600).append(':');
+        int minutes = seconds / 60 % 60;
+        if (minutes < 10) builder.append('0');
+        builder.append(minutes).append(':');
+        if (seconds % 60 < 10) builder.append('0');
+        builder.append(seconds % 60);
+    }
+
+    // Output is gzipped if the file name ends with ".gz".
+    public static void main(String args[]) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: PgnExport <input.archive> <output.pgn[.gz]>");
+            System.exit(1);
+        }
+
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+
+        long start = System.nanoTime();
+        long games;
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             Archive.Reader reader = new Archive.Reader(in);
+             OutputStream out = output.toString().endsWith(".gz") ?
+                new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16) :
+                new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16)) {
+            games = run(reader, out);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format("%d games, %.0f games/s", games, games / seconds));
+    }
+}
@@ -0,0 +1,137 @@
+package org.lichess.compression.archive;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.lichess.compression.Batch;
+
+// Converts a PGN file into an archive of encoded games. Games are parsed on
+// the calling thread and encoded in parallel, one batch at a time.
+public class PgnImport {
+    private static final int BATCH_SIZE = 4096;
+
+    public static class Stats {
+        public final long games;
+        public final long skipped;
+        public final long bytesRead;
+        public final long bytesWritten;
+        public final long nanos;
+
+        Stats(long games, long skipped, long bytesRead, long bytesWritten, long nanos) {
+            this.games = games;
+            this.skipped = skipped;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.nanos = nanos;
+        }
+
+        public double gamesPerSecond() {
+            return games * 1e9 / nanos;
+        }
+
+        public double megabytesPerSecond() {
+            return bytesRead * 1e9 / nanos / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d games (%d skipped), %d -> %d bytes, %.0f games/s, %.1f MB/s",
+                games, skipped, bytesRead, bytesWritten, gamesPerSecond(), megabytesPerSecond());
+        }
+    }
+
+    public static Stats run(PgnReader reader, Archive.Writer writer) throws IOException {
+        long start = System.nanoTime();
+        long games = 0, skipped = 0;
+
+        PgnReader.Game batch[] = new PgnReader.Game[BATCH_SIZE];
+        Archive.Record records[] = new Archive.Record[BATCH_SIZE];
+
+        while (true) {
+            int size = 0;
+            PgnReader.Game game;
+            while (size < BATCH_SIZE && (game = reader.next()) != null) batch[size++] = game;
+            if (size == 0) break;
+
+            Batch.forEach(size, i -> records[i] = encode(batch[i]));
+
+            for (int i = 0; i < size; i++) {
+                if (records[i] == null) {
+                    skipped++;
+                } else {
+                    try {
+                        writer.write(records[i]);
+                        games++;
+                    } catch (IllegalArgumentException e) {
+                        // Too large for the archive format.
+                        skipped++;
+                    }
+                }
+                batch[i] = null;
+                records[i] = null;
+            }
+        }
+
+        return new Stats(games, skipped, reader.bytesRead(), writer.bytesWritten(), System.nanoTime() - start);
+    }
+
+    // Returns null if the moves can not be encoded.
+    static Archive.Record encode(PgnReader.Game game) {
+        byte moves[] = org.lichess.compression.game.Encoder.encode(game.moves);
+        if (moves == null) return null;
+
+        int startTime = game.clocks == null ? -1 : startTime(game.tags, game.clocks);
+        if (startTime < 0) {
+            return new Archive.Record(game.tags, game.moves.length, moves, -1, new byte[0], new byte[0]);
+        }
+
+        int white[] = new int[(game.clocks.length + 1) / 2];
+        int black[] = new int[game.clocks.length / 2];
+        for (int i = 0; i < game.clocks.length; i++) {
+            if ((i & 1) == 0) white[i >> 1] = game.clocks[i];
+            else black[i >> 1] = game.clocks[i];
+        }
+
+        return new Archive.Record(
+            game.tags, game.moves.length, moves, startTime,
+            org.lichess.compression.clock.Encoder.encode(white, startTime),
+            org.lichess.compression.clock.Encoder.encode(black, startTime));
+    }
+
+    // Initial clock time from a TimeControl tag like "180+2", falling back
+    // to the first recorded clock.
+    static int startTime(Map<String, String> tags, int clocks[]) {
+        String timeControl = tags.get("TimeControl");
+        if (timeControl != null) {
+            int seconds = 0, i = 0;
+            for (; i < timeControl.length(); i++) {
+                char c = timeControl.charAt(i);
+                if (c < '0' || c > '9') break;
+                seconds = seconds * 10 + c - '0';
+            }
+            if (i > 0) return seconds * 100;
+        }
+        return clocks.length > 0 ? clocks[0] : -1;
+    }
+
+    public static void main(String args[]) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: PgnImport <input.pgn> <output.archive>");
+            System.exit(1);
+        }
+
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             Archive.Writer writer = new Archive.Writer(out)) {
+            System.err.println(run(new PgnReader(in), writer));
+        }
+    }
+}
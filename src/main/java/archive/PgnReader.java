@@ -0,0 +1,301 @@
+package org.lichess.compression.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Streaming PGN parser over a channel. Reads fixed size chunks, so files of
+// any size can be processed with constant memory. Comments, NAGs,
+// variations, move numbers and annotation glyphs are dropped. Clock times
+// from [%clk h:mm:ss] comments are kept.
+//
+// Not threadsafe.
+public class PgnReader {
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private boolean eof = false;
+    private long bytesRead = 0;
+
+    // Token scratch space.
+    private byte token[] = new byte[256];
+    private int tokenLength = 0;
+
+    public PgnReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    public PgnReader(ReadableByteChannel channel) {
+        this(channel, 1 << 16);
+    }
+
+    public static class Game {
+        public final Map<String, String> tags;
+        public final String moves[];
+        // Remaining time in centiseconds after each ply, or null if not every
+        // ply has a clock comment.
+        public final int clocks[];
+
+        public Game(Map<String, String> tags, String moves[], int clocks[]) {
+            this.tags = tags;
+            this.moves = moves;
+            this.clocks = clocks;
+        }
+    }
+
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    // Returns the next game, or null at the end of the input.
+    public Game next() throws IOException {
+        Map<String, String> tags = new LinkedHashMap<String, String>();
+        ArrayList<String> moves = new ArrayList<String>();
+        IntList clocks = new IntList();
+        boolean inMovetext = false;
+
+        while (true) {
+            int c = peek();
+            if (c < 0) break;
+
+            if (c == '[' && inMovetext) {
+                // Next game without a result marker.
+                break;
+            }
+
+            read();
+
+            if (isWhitespace(c)) continue;
+
+            if (c == '[') {
+                readTag(tags);
+            } else if (c == '%') {
+                skipLine();
+            } else if (c == ';') {
+                skipLine();
+                inMovetext = true;
+            } else if (c == '{') {
+                int centis = readComment();
+                if (centis >= 0 && !moves.isEmpty()) clocks.set(moves.size() - 1, centis);
+                inMovetext = true;
+            } else if (c == '(') {
+                skipVariation();
+                inMovetext = true;
+            } else if (c == '$') {
+                readToken(c);
+                inMovetext = true;
+            } else if (c == '*') {
+                break;
+            } else {
+                readToken(c);
+                inMovetext = true;
+                if (isResult()) break;
+                String move = moveInToken();
+                if (move != null) moves.add(move);
+            }
+        }
+
+        if (tags.isEmpty() && moves.isEmpty()) return null;
+
+        String movesArray[] = moves.toArray(new String[moves.size()]);
+        int clocksArray[] = clocks.size == movesArray.length && clocks.complete() ? clocks.toArray() : null;
+        return new Game(tags, movesArray, clocksArray);
+    }
+
+    private int peek() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) return -1;
+        return buffer.get(buffer.position()) & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) return -1;
+        return buffer.get() & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        buffer.flip();
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        bytesRead += n;
+        return true;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c < 0 || isWhitespace(c) || c == '{' || c == '}' || c == '(' || c == ')' || c == '[' || c == ']' || c == ';' || c == '$';
+    }
+
+    private void append(int c) {
+        if (tokenLength == token.length) token = Arrays.copyOf(token, tokenLength * 2);
+        token[tokenLength++] = (byte) c;
+    }
+
+    private void readToken(int first) throws IOException {
+        tokenLength = 0;
+        append(first);
+        while (!isDelimiter(peek())) append(read());
+    }
+
+    private boolean isResult() {
+        return tokenEquals("1-0") || tokenEquals("0-1") || tokenEquals("1/2-1/2") || tokenEquals("*");
+    }
+
+    private boolean tokenEquals(String s) {
+        if (tokenLength != s.length()) return false;
+        for (int i = 0; i < tokenLength; i++) {
+            if (token[i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Strips a leading move number ("12." or "12...") and trailing
+    // annotation glyphs ("!", "?"). Returns null if nothing is left,
+    // including for a move number without dots ("12").
+    private String moveInToken() {
+        int start = 0;
+        while (start < tokenLength && token[start] >= '0' && token[start] <= '9') start++;
+        if (start == tokenLength) return null;
+        if (token[start] == '.') {
+            while (start < tokenLength && token[start] == '.') start++;
+        } else {
+            start = 0;
+        }
+
+        int end = tokenLength;
+        while (end > start && (token[end - 1] == '!' || token[end - 1] == '?')) end--;
+
+        if (start >= end || token[start] == '$') return null;
+        return new String(token, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    private void readTag(Map<String, String> tags) throws IOException {
+        int c;
+        while (isWhitespace(c = read())) { }
+
+        tokenLength = 0;
+        while (c >= 0 && !isWhitespace(c) && c != '"' && c != ']') {
+            append(c);
+            c = read();
+        }
+        String name = new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+
+        while (c >= 0 && c != '"' && c != ']') c = read();
+        if (c != '"') return;
+
+        tokenLength = 0;
+        while ((c = read()) >= 0 && c != '"') {
+            if (c == '\\') c = read();
+            if (c < 0) break;
+            append(c);
+        }
+        tags.put(name, new String(token, 0, tokenLength, StandardCharsets.UTF_8));
+
+        while (c >= 0 && c != ']' && c != '\n') c = read();
+    }
+
+    // Skips a comment and returns the clock time it contains, or -1.
+    private int readComment() throws IOException {
+        tokenLength = 0;
+        int c;
+        while ((c = read()) >= 0 && c != '}') append(c);
+        return parseClock();
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        while ((c = read()) >= 0 && c != '\n') { }
+    }
+
+    private void skipVariation() throws IOException {
+        int depth = 1;
+        int c;
+        while (depth > 0 && (c = read()) >= 0) {
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+            else if (c == '{') {
+                while ((c = read()) >= 0 && c != '}') { }
+            }
+        }
+    }
+
+    private static final byte CLK[] = { '[', '%', 'c', 'l', 'k' };
+
+    // Parses [%clk h:mm:ss] or [%clk h:mm:ss.d] in the token buffer.
+    private int parseClock() {
+        outer:
+        for (int i = 0; i + CLK.length <= tokenLength; i++) {
+            for (int j = 0; j < CLK.length; j++) {
+                if (token[i + j] != CLK[j]) continue outer;
+            }
+
+            int p = i + CLK.length;
+            while (p < tokenLength && token[p] == ' ') p++;
+
+            int seconds = 0, part = 0, centis = 0;
+            boolean digits = false;
+            for (; p < tokenLength; p++) {
+                int c = token[p];
+                if (c >= '0' && c <= '9') {
+                    part = part * 10 + c - '0';
+                    digits = true;
+                } else if (c == ':') {
+                    seconds = (seconds + part) * 60;
+                    part = 0;
+                } else if (c == '.') {
+                    // Fractions of a second.
+                    int scale = 10;
+                    while (++p < tokenLength && token[p] >= '0' && token[p] <= '9') {
+                        centis += (token[p] - '0') * scale;
+                        scale /= 10;
+                    }
+                    break;
+                } else {
+                    break;
+                }
+            }
+            if (!digits) return -1;
+            return (seconds + part) * 100 + centis;
+        }
+        return -1;
+    }
+
+    private static final class IntList {
+        int values[] = new int[128];
+        int size = 0;
+
+        void set(int i, int value) {
+            while (i >= values.length) values = Arrays.copyOf(values, values.length * 2);
+            for (int j = size; j < i; j++) values[j] = -1;
+            if (i >= size) size = i + 1;
+            values[i] = value;
+        }
+
+        boolean complete() {
+            for (int i = 0; i < size; i++) {
+                if (values[i] < 0) return false;
+            }
+            return true;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.lichess.compression.archive;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lichess.compression.game.CodecContext;
+import org.lichess.compression.game.Encoder;
+import org.lichess.compression.game.HuffmanTrainer;
+import org.lichess.compression.game.MoveScorer;
+
+// Compares move scorers on the games of a PGN file: the entropy of the
+// resulting move indexes, their size with the built-in Huffman table, and
+// encoding and decoding speed on a single thread.
+public class ScorerBenchmark {
+    public static class Result {
+        public final String name;
+        public final long plies;
+        public final double entropy;
+        public final double bitsPerMove;
+        public final long encodeNanos;
+        public final long decodeNanos;
+
+        Result(String name, long plies, double entropy, double bitsPerMove, long encodeNanos, long decodeNanos) {
+            this.name = name;
+            this.plies = plies;
+            this.entropy = entropy;
+            this.bitsPerMove = bitsPerMove;
+            this.encodeNanos = encodeNanos;
+            this.decodeNanos = decodeNanos;
+        }
+
+        public double encodePliesPerSecond() {
+            return plies * 1e9 / encodeNanos;
+        }
+
+        public double decodePliesPerSecond() {
+            return plies * 1e9 / decodeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%s: entropy %.3f bits per move, huffman %.3f bits per move, encode %.0f plies/s, decode %.0f plies/s",
+                name, entropy, bitsPerMove, encodePliesPerSecond(), decodePliesPerSecond());
+        }
+    }
+
+    // Encodes and decodes all games rounds times, and reports the fastest
+    // round. Games that are not legal are skipped.
+    public static Result run(String name, MoveScorer scorer, List<String[]> games, int rounds) {
+        HuffmanTrainer trainer = new HuffmanTrainer(false, scorer);
+        trainer.addAll(games);
+        long counts[] = trainer.counts();
+
+        CodecContext context = new CodecContext(scorer);
+        byte encoded[][] = new byte[games.size()][];
+        long plies = 0;
+        long encodeNanos = Long.MAX_VALUE, decodeNanos = Long.MAX_VALUE;
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < encoded.length; i++) encoded[i] = Encoder.encode(context, games.get(i));
+            encodeNanos = Math.min(encodeNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < encoded.length; i++) {
+                if (encoded[i] != null) Encoder.decode(context, encoded[i], games.get(i).length);
+            }
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+        }
+
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] != null) plies += games.get(i).length;
+        }
+
+        return new Result(
+            name,
+            plies,
+            HuffmanTrainer.entropy(counts),
+            HuffmanTrainer.bitsPerMove(counts, HuffmanTrainer.currentLengths()),
+            encodeNanos,
+            decodeNanos);
+    }
+
+    public static void main(String args[]) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: ScorerBenchmark <input.pgn> [rounds] [scorer class...]");
+            System.exit(1);
+        }
+
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<String[]> games;
+        try (FileChannel in = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ)) {
+            games = CodecBenchmark.read(new PgnReader(in));
+        }
+
+        List<String> names = new ArrayList<String>();
+        List<MoveScorer> scorers = new ArrayList<MoveScorer>();
+        names.add("default");
+        scorers.add(MoveScorer.DEFAULT);
+        for (int i = 2; i < args.length; i++) {
+            names.add(args[i]);
+            scorers.add((MoveScorer) Class.forName(args[i]).getDeclaredConstructor().newInstance());
+        }
+
+        for (int i = 0; i < scorers.size(); i++) {
+            System.out.println(run(names.get(i), scorers.get(i), games, rounds));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.lichess.compression.archive;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lichess.compression.game.CanonicalHuffman;
+import org.lichess.compression.game.ContextHuffman;
+import org.lichess.compression.game.HuffmanTrainer;
+
+// Trains a new Huffman table on a PGN file or an archive, and prints a
+// comparison with the built-in table, followed by the new table.
+public class TrainHuffman {
+    private static final int BATCH_SIZE = 4096;
+
+    public static void train(PgnReader reader, HuffmanTrainer trainer) throws IOException {
+        List<String[]> batch = new ArrayList<String[]>(BATCH_SIZE);
+        PgnReader.Game game;
+        while ((game = reader.next()) != null) {
+            batch.add(game.moves);
+            if (batch.size() == BATCH_SIZE) {
+                trainer.addAll(batch);
+                batch.clear();
+            }
+        }
+        trainer.addAll(batch);
+    }
+
+    public static void train(Archive.Reader reader, HuffmanTrainer trainer) throws IOException {
+        byte inputs[][] = new byte[BATCH_SIZE][];
+        int plies[] = new int[BATCH_SIZE];
+        while (true) {
+            int size = 0;
+            Archive.Record record;
+            while (size < BATCH_SIZE && (record = reader.read()) != null) {
+                inputs[size] = record.moves;
+                plies[size++] = record.plies;
+            }
+            if (size == 0) break;
+            if (size < BATCH_SIZE) {
+                trainer.addAll(Arrays.copyOf(inputs, size), Arrays.copyOf(plies, size));
+                break;
+            }
+            trainer.addAll(inputs, plies);
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        boolean contexts = args.length > 0 && args[0].equals("--contexts");
+        int first = contexts ? 1 : 0;
+        if (args.length - first < 1 || args.length - first > 2) {
+            System.err.println("usage: TrainHuffman [--contexts] <input.pgn|input.archive> [max bits]");
+            System.exit(1);
+        }
+
+        Path input = Paths.get(args[first]);
+        // Longer codes could not be read by CanonicalHuffman.
+        int maxBits = args.length - first > 1 ? Integer.parseInt(args[first + 1]) : CanonicalHuffman.MAX_BITS;
+        if (maxBits > CanonicalHuffman.MAX_BITS) {
+            System.err.println("max bits must be at most " + CanonicalHuffman.MAX_BITS);
+            System.exit(1);
+        }
+
+        HuffmanTrainer trainer = new HuffmanTrainer(contexts);
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            if (args[first].endsWith(".pgn")) train(new PgnReader(in), trainer);
+            else train(new Archive.Reader(in), trainer);
+        }
+
+        int lengths[] = HuffmanTrainer.codeLengths(trainer.counts(), maxBits);
+        System.err.println(trainer.report(lengths));
+        if (contexts) {
+            ContextHuffman coder = ContextHuffman.fit(trainer.contextCounts(), maxBits);
+            System.err.println(trainer.report(coder));
+            for (int context = 0; context < ContextHuffman.CONTEXTS; context++) {
+                System.out.println(context + ": " + Arrays.toString(coder.lengths(context)));
+            }
+        } else {
+            System.out.print(trainer.table(lengths));
+        }
+    }
+}
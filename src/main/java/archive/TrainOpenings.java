@@ -0,0 +1,47 @@
+package org.lichess.compression.archive;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.lichess.compression.game.GameCodecs;
+import org.lichess.compression.game.OpeningDictionary;
+
+// Trains an opening dictionary on a PGN file, and prints a comparison with
+// plain Huffman coding, followed by the dictionary in the format of
+// OpeningDictionary.parse().
+public class TrainOpenings {
+    public static void main(String args[]) throws IOException {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("usage: TrainOpenings <codec id> <input.pgn> [max lines] [max plies]");
+            System.exit(1);
+        }
+
+        int id = Integer.parseInt(args[0]);
+        int maxLines = args.length > 2 ? Integer.parseInt(args[2]) : OpeningDictionary.MAX_LINES;
+        int maxPlies = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        List<String[]> games;
+        try (FileChannel in = FileChannel.open(Paths.get(args[1]), StandardOpenOption.READ)) {
+            games = CodecBenchmark.read(new PgnReader(in));
+        }
+
+        OpeningDictionary dictionary = OpeningDictionary.train(id, games, maxLines, maxPlies);
+
+        long before = 0, after = 0;
+        for (String game[]: games) {
+            before += GameCodecs.encode(GameCodecs.HUFFMAN, game).length;
+            after += GameCodecs.encode(dictionary, game).length;
+        }
+        System.err.println(String.format(
+            "%d games, %d lines%nhuffman: %.3f bytes per game%ndictionary: %.3f bytes per game (%+.2f%%)",
+            games.size(), dictionary.size(),
+            (double) before / Math.max(1, games.size()),
+            (double) after / Math.max(1, games.size()),
+            before == 0 ? 0 : 100.0 * (after - before) / before));
+
+        for (String row: dictionary.rows()) System.out.println(row);
+    }
+}
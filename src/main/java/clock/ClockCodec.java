@@ -0,0 +1,20 @@
+package org.lichess.compression.clock;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+
+// A way to encode the clock history of one side. Codecs are registered in
+// ClockCodecs under a small id, which is written in front of the encoded
+// clocks, so that new codecs can be rolled out without breaking stored
+// games.
+public interface ClockCodec {
+    // Between 0 and ClockCodecs.MAX_ID.
+    int id();
+
+    // Appends at least one clock reading to the writer.
+    void encode(int[] centis, int startTime, BitWriter writer);
+
+    // Decodes the clock readings, starting at the current position of the
+    // reader.
+    int[] decode(BitReader reader, int startTime);
+}
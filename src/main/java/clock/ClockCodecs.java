@@ -0,0 +1,79 @@
+package org.lichess.compression.clock;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+
+// Registry of clock codecs, and the versioned format that names the codec
+// in a two byte header: 0x80, followed by the codec id.
+//
+// Bytes from Encoder.encode() have no header. They still decode, because
+// they start with the varint encoded number of moves, and the header reads
+// as a varint with a continuation but no further set bits, which is never
+// written.
+public final class ClockCodecs {
+    public static final int MAX_ID = 0x3f;
+
+    private static final int HEADER_BITS = 16;
+
+    // The codec of Encoder, also used for bytes without a header.
+    public static final ClockCodec ESTIMATORS = new ClockCodec() {
+        public int id() {
+            return 0;
+        }
+
+        public void encode(int[] centis, int startTime, BitWriter writer) {
+            Encoder.encode(centis, startTime, writer);
+        }
+
+        public int[] decode(BitReader reader, int startTime) {
+            return Encoder.decode(reader, startTime);
+        }
+    };
+
+    private static final AtomicReferenceArray<ClockCodec> CODECS = new AtomicReferenceArray<ClockCodec>(MAX_ID + 1);
+
+    static {
+        register(ESTIMATORS);
+    }
+
+    private ClockCodecs() {}
+
+    public static void register(ClockCodec codec) {
+        int id = codec.id();
+        if (id < 0 || id > MAX_ID) throw new IllegalArgumentException("codec id out of range: " + id);
+        if (!CODECS.compareAndSet(id, null, codec)) throw new IllegalStateException("codec id already registered: " + id);
+    }
+
+    public static ClockCodec get(int id) {
+        ClockCodec codec = id < 0 || id > MAX_ID ? null : CODECS.get(id);
+        if (codec == null) throw new IllegalArgumentException("unknown clock codec: " + id);
+        return codec;
+    }
+
+    // Encodes with a header.
+    public static byte[] encode(ClockCodec codec, int[] centis, int startTime) {
+        BitWriter writer = new BitWriter();
+        writer.writeBits(0x80, 8);
+        writer.writeBits(codec.id(), 8);
+        if (centis.length > 0) codec.encode(centis, startTime, writer);
+        return writer.toArray();
+    }
+
+    // Decodes bytes with or without a header.
+    public static int[] decode(byte[] bytes, int startTime) {
+        if (!hasHeader(bytes)) return Encoder.decode(bytes, startTime);
+        if (bytes.length * 8 == HEADER_BITS) return new int[0];
+        return get(bytes[1]).decode(new BitReader(bytes, HEADER_BITS), startTime);
+    }
+
+    // The codec that was used to encode the bytes.
+    public static ClockCodec codecOf(byte[] bytes) {
+        return hasHeader(bytes) ? get(bytes[1]) : ESTIMATORS;
+    }
+
+    private static boolean hasHeader(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == (byte) 0x80 && (bytes[1] & 0xc0) == 0;
+    }
+}
@@ -2,6 +2,8 @@ package org.lichess.compression.clock;
 
 import java.util.Arrays;
 
+import org.lichess.compression.Batch;
+import org.lichess.compression.DecodeCache;
 import org.lichess.compression.BitReader;
 import org.lichess.compression.BitWriter;
 import org.lichess.compression.VarIntEncoder;
@@ -15,6 +17,13 @@ public class Encoder {
     public static byte[] encode(int[] centis, int startTime) {
         if (centis.length == 0) return new byte[0];
 
+        BitWriter writer = new BitWriter();
+        encode(centis, startTime, writer);
+        return writer.toArray();
+    }
+
+    // Appends the clock readings to the writer. There must be at least one.
+    public static void encode(int[] centis, int startTime, BitWriter writer) {
         int[] encoded = Arrays.copyOf(centis, centis.length);
         int truncatedStart = LowBitTruncator.truncate(startTime);
 
@@ -22,18 +31,19 @@ public class Encoder {
         LinearEstimator.encode(encoded, truncatedStart);
         EndTimeEstimator.encode(encoded, truncatedStart);
 
-        BitWriter writer = new BitWriter();
         VarIntEncoder.writeUnsigned(encoded.length - 1, writer);
         VarIntEncoder.writeSigned(encoded, writer);
         LowBitTruncator.writeDigits(centis, writer);
-
-        return writer.toArray();
     }
 
     public static int[] decode(byte[] bytes, int startTime) {
         if (bytes.length == 0) return new int[0];
+        return decode(new BitReader(bytes), startTime);
+    }
 
-        BitReader reader = new BitReader(bytes);
+    // Decodes clock readings, starting at the current position of the
+    // reader.
+    public static int[] decode(BitReader reader, int startTime) {
         int truncatedStart = LowBitTruncator.truncate(startTime);
 
         int numMoves = VarIntEncoder.readUnsigned(reader) + 1;
@@ -45,4 +55,36 @@ public class Encoder {
 
         return decoded;
     }
+
+    // Decodes using a shared cache of results. The results are shared and
+    // must not be modified.
+    public static int[] decode(byte[] bytes, int startTime, DecodeCache<int[]> cache) {
+        int[] decoded = cache.get(bytes, startTime);
+        if (decoded == null) {
+            decoded = decode(bytes, startTime);
+            cache.put(bytes, startTime, decoded, 16 + 4 * decoded.length);
+        }
+        return decoded;
+    }
+
+    // Encodes the clock histories of many games in parallel.
+    public static byte[][] encodeAll(int[][] centis, int[] startTimes) {
+        byte[][] output = new byte[centis.length][];
+        encodeAll(centis, startTimes, output);
+        return output;
+    }
+
+    public static void encodeAll(int[][] centis, int[] startTimes, byte[][] output) {
+        Batch.forEach(centis.length, i -> output[i] = encode(centis[i], startTimes[i]));
+    }
+
+    public static int[][] decodeAll(byte[][] bytes, int[] startTimes) {
+        int[][] output = new int[bytes.length][];
+        decodeAll(bytes, startTimes, output);
+        return output;
+    }
+
+    public static void decodeAll(byte[][] bytes, int[] startTimes, int[][] output) {
+        Batch.forEach(bytes.length, i -> output[i] = decode(bytes[i], startTimes[i]));
+    }
 }
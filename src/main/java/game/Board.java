@@ -22,6 +22,11 @@ final class Board {
     int incrementalHash;
 
     public Board() {
+        reset();
+    }
+
+    // Back to the initial position.
+    void reset() {
         this.pawns = 0xff00000000ff00L;
         this.knights = 0x4200000000000042L;
         this.bishops = 0x2400000000000024L;
@@ -81,6 +86,13 @@ final class Board {
         this.incrementalHash = ZobristHash.hashPieces(this) ^ ZobristHash.hashTurn(this);
     }
 
+    Board(Map<Integer, Piece> pieces, boolean turn, int epSquare, long castlingRights) {
+        this(0, 0, 0, 0, 0, 0, 0, 0, turn, epSquare, castlingRights);
+        for (Map.Entry<Integer, Piece> entry : pieces.entrySet()) {
+            put(entry.getKey(), entry.getValue().white, entry.getValue().role);
+        }
+    }
+
     private boolean isOccupied(int square) {
         return Bitboard.contains(this.occupied, square);
     }
@@ -0,0 +1,136 @@
+package org.lichess.compression.game;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+
+// Canonical Huffman code for move indexes, with codes of at most 16 bits.
+// The code is fully described by the code length of each index, so tables
+// are small and cheap to swap. Decoding looks up the next 10 bits in a
+// table, and falls back to comparing against the first code of each length
+// for longer codes, instead of walking a tree bit by bit.
+//
+// The default table was fitted with HuffmanTrainer to the frequencies of
+// the Huffman.CODES corpus. On the test games it needs less than 0.5% more
+// bits than Huffman (checked by HuffmanPgnTest).
+public final class CanonicalHuffman implements MoveIndexCoder {
+    public static final int MAX_BITS = 16;
+    public static final int SYMBOLS = 256;
+
+    private static final int LOOKUP_BITS = 10;
+
+    public static final CanonicalHuffman DEFAULT = new CanonicalHuffman(defaultLengths());
+
+    private final int lengths[];
+    private final int codes[];
+
+    // Index << 5 | length, for codes of at most LOOKUP_BITS. Longer codes
+    // have zero entries.
+    private final int lookup[] = new int[1 << LOOKUP_BITS];
+
+    // For each length: one past the last code, and the position of the
+    // first code in symbols.
+    private final int limit[] = new int[MAX_BITS + 1];
+    private final int offset[] = new int[MAX_BITS + 1];
+    private final int firstCode[] = new int[MAX_BITS + 1];
+
+    // Indexes in canonical order.
+    private final int symbols[];
+
+    // Codes for the indexes 0 to lengths.length - 1.
+    public CanonicalHuffman(int lengths[]) {
+        if (lengths.length < 2 || lengths.length > SYMBOLS) throw new IllegalArgumentException("need 2 to " + SYMBOLS + " code lengths");
+
+        long kraft = 0;
+        int counts[] = new int[MAX_BITS + 1];
+        for (int length: lengths) {
+            if (length < 1 || length > MAX_BITS) throw new IllegalArgumentException("code length out of range: " + length);
+            counts[length]++;
+            kraft += 1L << (MAX_BITS - length);
+        }
+        if (kraft != 1L << MAX_BITS) throw new IllegalArgumentException("code lengths do not form a complete prefix code");
+
+        this.lengths = lengths.clone();
+        this.codes = new int[lengths.length];
+        this.symbols = new int[lengths.length];
+
+        int code = 0, position = 0;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            firstCode[length] = code;
+            offset[length] = position;
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] == length) {
+                    codes[i] = code++;
+                    symbols[position++] = i;
+                }
+            }
+            limit[length] = code;
+            code <<= 1;
+        }
+
+        for (int i = 0; i < lengths.length; i++) {
+            int length = lengths[i];
+            if (length > LOOKUP_BITS) continue;
+            int first = codes[i] << (LOOKUP_BITS - length);
+            for (int j = 0; j < 1 << (LOOKUP_BITS - length); j++) {
+                lookup[first + j] = i << 5 | length;
+            }
+        }
+    }
+
+    public int[] lengths() {
+        return lengths.clone();
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    public int size() {
+        return lengths.length;
+    }
+
+    public void write(int index, BitWriter writer) {
+        writer.writeBits(codes[index], lengths[index]);
+    }
+
+    public void write(int index, int numLegals, boolean check, BitWriter writer) {
+        write(index, writer);
+    }
+
+    public int read(int numLegals, boolean check, BitReader reader) {
+        return read(reader);
+    }
+
+    public int read(BitReader reader) {
+        int bits = reader.peekBits(MAX_BITS);
+
+        int entry = lookup[bits >>> (MAX_BITS - LOOKUP_BITS)];
+        if (entry != 0) {
+            reader.readBits(entry & 31);
+            return entry >>> 5;
+        }
+
+        // Prefixes of longer codes are never below the limit of shorter
+        // lengths.
+        for (int length = LOOKUP_BITS + 1; length <= MAX_BITS; length++) {
+            int code = bits >>> (MAX_BITS - length);
+            if (code < limit[length]) {
+                reader.readBits(length);
+                return symbols[offset[length] + code - firstCode[length]];
+            }
+        }
+
+        throw new IllegalStateException("incomplete code");
+    }
+
+    private static int[] defaultLengths() {
+        int lengths[] = new int[SYMBOLS];
+        int head[] = {
+            2, 3, 4, 4, 4, 5, 5, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 6, 6, 6,
+            6, 6, 7, 7, 7, 7, 7, 7, 7, 7, 8, 8, 8, 8, 9, 9, 9, 9, 10, 10,
+            10, 11, 11, 12, 13, 13, 13, 14, 14, 15
+        };
+        for (int i = 0; i < SYMBOLS; i++) lengths[i] = i < head.length ? head[i] : MAX_BITS;
+        return lengths;
+    }
+}
@@ -0,0 +1,102 @@
+package org.lichess.compression.game;
+
+import java.util.Arrays;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+import org.lichess.compression.VarIntEncoder;
+
+// Side index for an encoded game: a board snapshot and the bit offset into
+// the move stream every interval plies. The encoded moves are unchanged, so
+// an index can be built for existing games at any time and stored next to
+// them.
+public class Checkpoints {
+    public final int interval;
+
+    // Checkpoint i is taken after (i + 1) * interval plies.
+    private final int bitOffsets[];
+    private final Position positions[];
+
+    Checkpoints(int interval, int bitOffsets[], Position positions[]) {
+        this.interval = interval;
+        this.bitOffsets = bitOffsets;
+        this.positions = positions;
+    }
+
+    public int size() {
+        return positions.length;
+    }
+
+    public int ply(int i) {
+        return (i + 1) * interval;
+    }
+
+    public int bitOffset(int i) {
+        return bitOffsets[i];
+    }
+
+    public Position position(int i) {
+        return positions[i];
+    }
+
+    // Index of the last checkpoint at or before the given ply, or -1 if
+    // decoding has to start from the initial position.
+    public int before(int ply) {
+        return Math.min(ply / interval, positions.length) - 1;
+    }
+
+    public byte[] toBytes() {
+        BitWriter writer = new BitWriter();
+        VarIntEncoder.writeUnsigned(interval, writer);
+        VarIntEncoder.writeUnsigned(positions.length, writer);
+        int lastOffset = 0;
+        for (int i = 0; i < positions.length; i++) {
+            VarIntEncoder.writeUnsigned(bitOffsets[i] - lastOffset, writer);
+            lastOffset = bitOffsets[i];
+            positions[i].write(writer);
+        }
+        return writer.toArray();
+    }
+
+    public static Checkpoints fromBytes(byte bytes[]) {
+        BitReader reader = new BitReader(bytes);
+        int interval = VarIntEncoder.readUnsigned(reader);
+        int size = VarIntEncoder.readUnsigned(reader);
+        int bitOffsets[] = new int[size];
+        Position positions[] = new Position[size];
+        int lastOffset = 0;
+        for (int i = 0; i < size; i++) {
+            bitOffsets[i] = lastOffset += VarIntEncoder.readUnsigned(reader);
+            positions[i] = Position.read(reader);
+        }
+        return new Checkpoints(interval, bitOffsets, positions);
+    }
+
+    static class Builder {
+        private final int interval;
+        private int bitOffsets[] = new int[4];
+        private Position positions[] = new Position[4];
+        private int size = 0;
+
+        Builder(int interval) {
+            if (interval <= 0) throw new IllegalArgumentException("interval must be positive");
+            this.interval = interval;
+        }
+
+        // Called after each ply with the number of plies played so far.
+        void after(int ply, Board board, int halfMoveClock, int bitOffset) {
+            if (ply % interval != 0) return;
+            if (size == positions.length) {
+                bitOffsets = Arrays.copyOf(bitOffsets, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            bitOffsets[size] = bitOffset;
+            positions[size] = new Position(board, halfMoveClock, ply);
+            size++;
+        }
+
+        Checkpoints build() {
+            return new Checkpoints(interval, Arrays.copyOf(bitOffsets, size), Arrays.copyOf(positions, size));
+        }
+    }
+}
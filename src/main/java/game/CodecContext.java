@@ -0,0 +1,139 @@
+package org.lichess.compression.game;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+
+// Scratch state for encoding and decoding a game. A context can be reused
+// for any number of games, but must not be used by more than one thread at
+// a time.
+//
+// Contexts are passed explicitly instead of living in thread locals, so that
+// memory is bounded by the number of concurrent calls rather than by the
+// number of threads that ever touched the encoder (which matters with one
+// virtual thread per request).
+public final class CodecContext {
+    final MoveList legals;
+    final Board board = new Board();
+    final BitWriter writer = new BitWriter();
+    final BitReader reader = new BitReader(new byte[0]);
+    final ByteBuffer pgnBuffer = ByteBuffer.allocate(8192);
+    final MoveHistory history = new MoveHistory();
+
+    // Shared between contexts. May be null.
+    final MoveCache moveCache;
+
+    public CodecContext() {
+        this(null, MoveScorer.DEFAULT);
+    }
+
+    // Uses the scorer of the move cache.
+    public CodecContext(MoveCache moveCache) {
+        this(moveCache, moveCache == null ? MoveScorer.DEFAULT : moveCache.scorer());
+    }
+
+    // Orders moves with the given scorer. Games encoded with a context can
+    // only be decoded with a context that uses the same scorer.
+    public CodecContext(MoveScorer scorer) {
+        this(null, scorer);
+    }
+
+    private CodecContext(MoveCache moveCache, MoveScorer scorer) {
+        this.moveCache = moveCache;
+        this.legals = new MoveList(256, scorer);
+    }
+
+    public MoveScorer scorer() {
+        return legals.scorer();
+    }
+
+    // Scratch writer and reader for formats that embed encoded games. The
+    // writer is reset by every encode() call of the Encoder.
+    public BitWriter writer() {
+        return writer;
+    }
+
+    public BitReader reader() {
+        return reader;
+    }
+
+    // Fills legals with the legal moves of the board, sorted by move index.
+    void legalMoves(Board board) {
+        if (moveCache != null) {
+            moveCache.legalMoves(board, legals);
+        } else {
+            board.legalMoves(legals);
+            legals.sort();
+        }
+    }
+
+    private static final Pool POOL = new Pool(2 * Runtime.getRuntime().availableProcessors());
+
+    // Takes a context from the shared pool, or creates a new one if the pool
+    // is empty. Hand it back with release() when done.
+    public static CodecContext acquire() {
+        return POOL.acquire();
+    }
+
+    public static void release(CodecContext context) {
+        POOL.release(context);
+    }
+
+    // A bounded, lock-free pool. Contexts returned while the pool is full are
+    // dropped and left to the garbage collector.
+    public static final class Pool {
+        private final AtomicReferenceArray<CodecContext> slots;
+        private final MoveCache moveCache;
+        private final MoveScorer scorer;
+
+        public Pool(int capacity) {
+            this(capacity, null, MoveScorer.DEFAULT);
+        }
+
+        // New contexts from this pool share the given move cache.
+        public Pool(int capacity, MoveCache moveCache) {
+            this(capacity, moveCache, moveCache == null ? MoveScorer.DEFAULT : moveCache.scorer());
+        }
+
+        // New contexts from this pool order moves with the given scorer.
+        public Pool(int capacity, MoveScorer scorer) {
+            this(capacity, null, scorer);
+        }
+
+        private Pool(int capacity, MoveCache moveCache, MoveScorer scorer) {
+            slots = new AtomicReferenceArray<CodecContext>(Math.max(1, capacity));
+            this.moveCache = moveCache;
+            this.scorer = scorer;
+        }
+
+        public CodecContext acquire() {
+            int n = slots.length();
+            int start = probe(n);
+            for (int i = 0; i < n; i++) {
+                int slot = (start + i) % n;
+                if (slots.get(slot) != null) {
+                    CodecContext context = slots.getAndSet(slot, null);
+                    if (context != null) return context;
+                }
+            }
+            return new CodecContext(moveCache, scorer);
+        }
+
+        public void release(CodecContext context) {
+            int n = slots.length();
+            int start = probe(n);
+            for (int i = 0; i < n; i++) {
+                int slot = (start + i) % n;
+                if (slots.get(slot) == null && slots.compareAndSet(slot, null, context)) return;
+            }
+        }
+
+        // Spread threads over the slots to reduce contention.
+        private static int probe(int n) {
+            long id = Thread.currentThread().getId();
+            return (int) ((id * 0x9e3779b97f4a7c15L) >>> 33) % n;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.lichess.compression.game;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+
+// Picks one of several canonical Huffman tables for each move, depending on
+// the number of legal moves and whether the side to move is in check. Both
+// are known to the decoder before it reads the move.
+//
+// Each table only has codes for indexes below the largest number of legal
+// moves in its bucket, and forced moves take no bits at all.
+//
+// There are no built-in tables. Fit them to the context counts of a
+// HuffmanTrainer created with contexts.
+public final class ContextHuffman implements MoveIndexCoder {
+    // Largest number of legal moves in each bucket.
+    static final int BUCKETS[] = { 1, 4, 8, 16, 24, 32, 40, 48, CanonicalHuffman.SYMBOLS };
+
+    public static final int CONTEXTS = 2 * BUCKETS.length;
+
+    private final CanonicalHuffman tables[] = new CanonicalHuffman[CONTEXTS];
+
+    // Code lengths for each context. Tables for the forced move bucket are
+    // ignored.
+    public ContextHuffman(int lengths[][]) {
+        if (lengths.length != CONTEXTS) throw new IllegalArgumentException("need " + CONTEXTS + " tables");
+        for (int context = 0; context < CONTEXTS; context++) {
+            if (bucketSize(context) > 1) tables[context] = new CanonicalHuffman(lengths[context]);
+        }
+    }
+
+    // Fits a table to the counts of each context.
+    public static ContextHuffman fit(long counts[][], int maxBits) {
+        int lengths[][] = new int[CONTEXTS][];
+        for (int context = 0; context < CONTEXTS; context++) {
+            int size = bucketSize(context);
+            if (size < 2) continue;
+            long bucketCounts[] = new long[size];
+            System.arraycopy(counts[context], 0, bucketCounts, 0, size);
+            lengths[context] = HuffmanTrainer.codeLengths(bucketCounts, maxBits);
+        }
+        return new ContextHuffman(lengths);
+    }
+
+    public static int context(int numLegals, boolean check) {
+        int bucket = 0;
+        while (BUCKETS[bucket] < numLegals) bucket++;
+        return 2 * bucket + (check ? 1 : 0);
+    }
+
+    // Number of indexes that can occur in the context.
+    public static int bucketSize(int context) {
+        return BUCKETS[context >> 1];
+    }
+
+    public int[] lengths(int context) {
+        return tables[context] == null ? new int[] { 0 } : tables[context].lengths();
+    }
+
+    public void write(int index, int numLegals, boolean check, BitWriter writer) {
+        if (numLegals > 1) tables[context(numLegals, check)].write(index, writer);
+    }
+
+    public int read(int numLegals, boolean check, BitReader reader) {
+        return numLegals > 1 ? tables[context(numLegals, check)].read(reader) : 0;
+    }
+}
@@ -4,23 +4,22 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 
+import org.lichess.compression.Batch;
+import org.lichess.compression.DecodeCache;
 import org.lichess.compression.BitReader;
 import org.lichess.compression.BitWriter;
 
 public class Encoder {
-    private static final ThreadLocal<MoveList> moveList = new ThreadLocal<MoveList>() {
-        @Override
-        protected MoveList initialValue() {
-            return new MoveList();
-        }
-    };
-
     private static Pattern SAN_PATTERN = Pattern.compile(
         "([NBKRQ])?([a-h])?([1-8])?x?([a-h][1-8])(?:=([NBRQK]))?[\\+#]?");
 
@@ -36,12 +35,49 @@ public class Encoder {
     }
 
     public static byte[] encode(String pgnMoves[]) {
-        BitWriter writer = new BitWriter();
+        CodecContext context = CodecContext.acquire();
+        try {
+            return encode(context, pgnMoves);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
 
-        Board board = new Board();
-        MoveList legals = moveList.get();
+    public static byte[] encode(CodecContext context, String pgnMoves[]) {
+        BitWriter writer = context.writer;
+        writer.reset();
+        return encode(context, pgnMoves, writer) ? writer.toArray() : null;
+    }
+
+    // Appends the moves to the writer. Returns false if the moves are not
+    // legal, leaving the writer in an unspecified state.
+    public static boolean encode(CodecContext context, String pgnMoves[], BitWriter writer) {
+        return encode(context, pgnMoves, writer, HUFFMAN);
+    }
+
+    static boolean encode(CodecContext context, String pgnMoves[], BitWriter writer, MoveIndexEncoder coder) {
+        return encode(context, pgnMoves, writer, coder, null);
+    }
+
+    // Orders the legal moves with the given history, if any. The history
+    // must be reset.
+    static boolean encode(CodecContext context, String pgnMoves[], BitWriter writer, MoveIndexEncoder coder, MoveHistory history) {
+        Board board = context.board;
+        board.reset();
+        return encode(context, board, pgnMoves, 0, writer, coder, history);
+    }
+
+    // Encodes the moves from the given ply on, where start is the position
+    // after the moves before that ply.
+    static boolean encode(CodecContext context, DecodeResult start, String pgnMoves[], BitWriter writer, MoveIndexEncoder coder) {
+        return encode(context, new Board(start.board), pgnMoves, start.pgnMoves.length, writer, coder, null);
+    }
 
-        for (String pgnMove: pgnMoves) {
+    private static boolean encode(CodecContext context, Board board, String pgnMoves[], int ply, BitWriter writer, MoveIndexEncoder coder, MoveHistory history) {
+        MoveList legals = context.legals;
+
+        for (int p = ply; p < pgnMoves.length; p++) {
+            String pgnMove = pgnMoves[p];
             // Parse SAN.
             Role role = null, promotion = null;
             long from = Bitboard.ALL;
@@ -57,7 +93,7 @@ public class Encoder {
                 to = Bitboard.msb(board.rooks & Bitboard.RANKS[board.turn ?  0 : 7]);
             } else {
                 Matcher matcher = SAN_PATTERN.matcher(pgnMove);
-                if (!matcher.matches()) return null;
+                if (!matcher.matches()) return false;
 
                 String roleStr = matcher.group(1);
                 role = roleStr == null ? Role.PAWN : charToRole(roleStr.charAt(0));
@@ -73,8 +109,8 @@ public class Encoder {
             }
 
             // Find index in legal moves.
-            board.legalMoves(legals);
-            legals.sort();
+            context.legalMoves(board);
+            if (history != null) history.reorder(board.turn, legals);
 
             boolean foundMatch = false;
             int size = legals.size();
@@ -84,68 +120,290 @@ public class Encoder {
                 if (legal.role == role && legal.to == to && legal.promotion == promotion && Bitboard.contains(from, legal.from)) {
                     if (!foundMatch) {
                         // Encode and play.
-                        Huffman.write(i, writer);
+                        coder.write(i, size, board.isCheck(), writer);
+                        if (history != null) history.update(board.turn, legal);
                         board.play(legal);
                         foundMatch = true;
                     }
-                    else return null;
+                    else return false;
                 }
             }
 
-            if (!foundMatch) return null;
+            if (!foundMatch) return false;
         }
 
-        return writer.toArray();
+        return true;
+    }
+
+    // Encodes many games in parallel. Entries for invalid games are null.
+    public static byte[][] encodeAll(List<String[]> games) {
+        byte[][] output = new byte[games.size()][];
+        encodeAll(games, output);
+        return output;
     }
 
+    public static void encodeAll(List<String[]> games, byte[][] output) {
+        Batch.forEach(games.size(), i -> output[i] = encode(games.get(i)));
+    }
+
+    // The built-in table.
+    static final MoveIndexCoder HUFFMAN = new MoveIndexCoder() {
+        public void write(int index, int numLegals, boolean check, BitWriter writer) {
+            Huffman.write(index, writer);
+        }
+
+        public int read(int numLegals, boolean check, BitReader reader) {
+            return Huffman.read(reader);
+        }
+    };
+
     public static class DecodeResult {
         public final String pgnMoves[];
-        public final Map<Integer, Piece> pieces;
-        public final Set<Integer> unmovedRooks;
         public final int halfMoveClock;
         public final byte positionHashes[];
         public final String lastUci;
 
-        public DecodeResult(String pgnMoves[], Map<Integer, Piece> pieces, Set<Integer> unmovedRooks, int halfMoveClock, byte positionHashes[], String lastUci) {
+        // The final position is kept as bitboards. Boxed views are only
+        // built when requested.
+        private final Board board;
+        private volatile Map<Integer, Piece> pieces;
+        private volatile Set<Integer> unmovedRooks;
+
+        // Scorer of the context that decoded the moves. Continuing from this
+        // result is only valid with the same scorer.
+        final MoveScorer scorer;
+
+        DecodeResult(String pgnMoves[], Board board, int halfMoveClock, byte positionHashes[], String lastUci, MoveScorer scorer) {
             this.pgnMoves = pgnMoves;
-            this.pieces = pieces;
-            this.unmovedRooks = unmovedRooks;
+            this.board = board;
+            this.scorer = scorer;
             this.halfMoveClock = halfMoveClock;
             this.positionHashes = positionHashes;
             this.lastUci = lastUci;
         }
+
+        // Builds a result from boxed pieces. The side to move follows from
+        // the number of plies and the en passant square from lastUci.
+        public DecodeResult(String pgnMoves[], Map<Integer, Piece> pieces, Set<Integer> unmovedRooks, int halfMoveClock, byte positionHashes[], String lastUci) {
+            this(pgnMoves, boardOf(pieces, unmovedRooks, pgnMoves.length % 2 == 0, lastUci), halfMoveClock, positionHashes, lastUci, MoveScorer.DEFAULT);
+            this.pieces = pieces;
+            this.unmovedRooks = unmovedRooks;
+        }
+
+        private static Board boardOf(Map<Integer, Piece> pieces, Set<Integer> unmovedRooks, boolean turn, String lastUci) {
+            long castlingRights = 0;
+            for (int square : unmovedRooks) castlingRights |= 1L << square;
+
+            int epSquare = 0;
+            if (lastUci != null && lastUci.length() >= 4) {
+                int from = (lastUci.charAt(0) - 'a') + 8 * (lastUci.charAt(1) - '1');
+                int to = (lastUci.charAt(2) - 'a') + 8 * (lastUci.charAt(3) - '1');
+                Piece moved = pieces.get(to);
+                if (moved != null && moved.role == Role.PAWN && Math.abs(from - to) == 16) {
+                    // Same rule as Board.play: only when a pawn can capture.
+                    int sq = (from + to) / 2;
+                    long attackers = 0;
+                    for (Map.Entry<Integer, Piece> entry : pieces.entrySet()) {
+                        Piece piece = entry.getValue();
+                        if (piece.role == Role.PAWN && piece.white == turn) attackers |= 1L << entry.getKey();
+                    }
+                    if ((Bitboard.pawnAttacks(!turn, sq) & attackers) != 0) epSquare = sq;
+                }
+            }
+
+            return new Board(pieces, turn, epSquare, castlingRights);
+        }
+
+        public Map<Integer, Piece> pieces() {
+            Map<Integer, Piece> map = pieces;
+            if (map == null) pieces = map = board.pieceMap();
+            return map;
+        }
+
+        public Set<Integer> unmovedRooks() {
+            Set<Integer> set = unmovedRooks;
+            if (set == null) unmovedRooks = set = Bitboard.squareSet(board.castlingRights);
+            return set;
+        }
+
+        public long unmovedRooksMask() {
+            return board.castlingRights;
+        }
+
+        // Pawns, knights, bishops, rooks, queens and kings (indexed by
+        // Role.index), followed by white and black pieces.
+        public long[] pieceBitboards() {
+            return new long[] {
+                board.pawns, board.knights, board.bishops, board.rooks, board.queens, board.kings,
+                board.white, board.black
+            };
+        }
     }
 
     public static DecodeResult decode(byte input[], int plies) {
-        BitReader reader = new BitReader(input);
+        CodecContext context = CodecContext.acquire();
+        try {
+            return decode(context, input, plies);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
 
-        String output[] = new String[plies];
+    public static DecodeResult decode(CodecContext context, byte input[], int plies) {
+        BitReader reader = context.reader;
+        reader.reset(input, 0);
+        return decode(context, reader, plies);
+    }
 
-        Board board = new Board();
-        MoveList legals = moveList.get();
+    // Decodes plies moves, starting at the current position of the reader.
+    public static DecodeResult decode(CodecContext context, BitReader reader, int plies) {
+        return decode(context, reader, plies, HUFFMAN);
+    }
+
+    static DecodeResult decode(CodecContext context, BitReader reader, int plies, MoveIndexDecoder coder) {
+        return decode(context, reader, plies, coder, null);
+    }
 
-        String lastUci = null;
+    static DecodeResult decode(CodecContext context, BitReader reader, int plies, MoveIndexDecoder coder, MoveHistory history) {
+        // Not taken from the context, because the result keeps the board.
+        Board board = new Board();
 
         // Collect the position hashes (3 bytes each) since the last capture
         // or pawn move.
+        byte positionHashes[] = new byte[3 * (plies + 1)];
+        setHash(positionHashes, -1, board.zobristHash());
+
+        return decode(context, reader, coder, history, board, 0, new String[plies], positionHashes, -1, -1, null);
+    }
+
+    // Decodes using and filling a shared cache of opening positions, with
+    // a context from the pool of the cache, which uses its scorer.
+    public static DecodeResult decode(byte input[], int plies, OpeningCache cache) {
+        CodecContext context = cache.contexts.acquire();
+        try {
+            return decode(context, input, plies, cache);
+        } finally {
+            cache.contexts.release(context);
+        }
+    }
+
+    // The context must use the scorer of the cache.
+    public static DecodeResult decode(CodecContext context, byte input[], int plies, OpeningCache cache) {
+        BitReader reader = context.reader;
+        reader.reset(input, 0);
+
+        // Follow the cached line as far as possible.
+        OpeningCache.Node node = cache.walk(context, reader, plies);
+        int ply = node.ply;
+
+        String output[] = new String[plies];
+        byte positionHashes[] = new byte[3 * (plies + 1)];
         int lastZeroingPly = -1;
         int lastIrreversiblePly = -1;
+        String lastUci = node.uci;
+
+        for (OpeningCache.Node n = node; n.parent != null; n = n.parent) {
+            int i = n.ply - 1;
+            output[i] = n.san;
+            setHash(positionHashes, i, n.hash);
+            if (n.zeroing && lastZeroingPly < i) lastZeroingPly = i;
+            if (n.irreversible && lastIrreversiblePly < i) lastIrreversiblePly = i;
+        }
+        setHash(positionHashes, -1, cache.root.hash);
+
+        return decode(context, reader, HUFFMAN, null, new Board(node.board), ply, output, positionHashes, lastZeroingPly, lastIrreversiblePly, lastUci);
+    }
+
+    // The longest Huffman code is 31 bits, so one more move adds at most 4
+    // bytes.
+    private static final int MAX_MOVE_BYTES = 4;
+
+    // Decodes using a shared cache of results. If the exact game is not
+    // cached, but the same game one ply shorter is, only the last move is
+    // decoded. The results are shared and must not be modified.
+    //
+    // Cached results of contexts with a different scorer are neither
+    // returned nor extended, but replaced.
+    public static DecodeResult decode(byte input[], int plies, DecodeCache<DecodeResult> cache) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            return decode(context, input, plies, cache);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static DecodeResult decode(CodecContext context, byte input[], int plies, DecodeCache<DecodeResult> cache) {
+        MoveScorer scorer = context.scorer();
+        DecodeCache.Entry<DecodeResult> entry = cache.lookup(input, plies, plies - 1, plies > 0 ? MAX_MOVE_BYTES : -1);
+        if (entry != null && entry.value.scorer != scorer) entry = null;
+        if (entry != null && entry.key() == plies) return entry.value;
+
+        DecodeResult result;
+        if (entry == null) {
+            result = decode(context, input, plies);
+        } else {
+            // The same game one ply shorter.
+            BitReader reader = context.reader;
+            reader.reset(input, entry.bitLength);
+            result = decode(context, reader, entry.value, plies, HUFFMAN);
+        }
+
+        cache.put(input, context.reader.bitPosition(), plies, result, weight(result));
+        return result;
+    }
+
+    // Continues decoding after a previous result, up to plies moves in
+    // total.
+    static DecodeResult decode(CodecContext context, BitReader reader, DecodeResult previous, int plies, MoveIndexDecoder coder) {
+        int ply = previous.pgnMoves.length;
+
         byte positionHashes[] = new byte[3 * (plies + 1)];
-        setHash(positionHashes, -1, board.zobristHash());
+        System.arraycopy(previous.positionHashes, 0, positionHashes, 3 * (plies - ply), previous.positionHashes.length);
+
+        return decode(
+            context,
+            reader,
+            coder,
+            null,
+            new Board(previous.board),
+            ply,
+            Arrays.copyOf(previous.pgnMoves, plies),
+            positionHashes,
+            ply - 1 - previous.halfMoveClock,
+            ply - previous.positionHashes.length / 3,
+            previous.lastUci);
+    }
+
+    // Rough estimate of the retained heap size.
+    private static long weight(DecodeResult result) {
+        return 128 + result.positionHashes.length + 56 * result.pgnMoves.length;
+    }
 
-        for (int i = 0; i <= plies; i++) {
-            if (0 < i || i < plies) board.legalMoves(legals);
+    // Continues decoding at the given ply. Moves (including check
+    // suffixes) and position hashes before that ply must already be filled
+    // in, and the history (if any) must have seen them.
+    private static DecodeResult decode(CodecContext context, BitReader reader, MoveIndexDecoder coder, MoveHistory history, Board board, int ply, String output[], byte positionHashes[], int lastZeroingPly, int lastIrreversiblePly, String lastUci) {
+        MoveList legals = context.legals;
+        int plies = output.length;
+
+        for (int i = ply; i <= plies; i++) {
+            if (ply < i || i < plies) {
+                context.legalMoves(board);
+                if (history != null && i < plies) history.reorder(board.turn, legals);
+            }
+            boolean check = board.isCheck();
 
             // Append check or checkmate suffix to previous move.
-            if (0 < i) {
-                if (board.isCheck()) output[i - 1] += (legals.isEmpty() ? "#" : "+");
+            if (ply < i) {
+                if (check) output[i - 1] += (legals.isEmpty() ? "#" : "+");
             }
 
             // Decode and play next move.
             if (i < plies) {
-                legals.sort();
-                Move move = legals.get(Huffman.read(reader));
+                Move move = legals.get(coder.read(legals.size(), check, reader));
                 output[i] = san(move, legals);
+                if (history != null) history.update(board.turn, move);
                 board.play(move);
 
                 if (move.isZeroing()) lastZeroingPly = i;
@@ -158,14 +416,229 @@ public class Encoder {
 
         return new DecodeResult(
             output,
-            board.pieceMap(),
-            Bitboard.squareSet(board.castlingRights),
+            board,
             plies - 1 - lastZeroingPly,
             Arrays.copyOf(positionHashes, 3 * (plies - lastIrreversiblePly)),
-            lastUci);
+            lastUci,
+            context.scorer());
+    }
+
+    public static DecodeResult[] decodeAll(byte[][] inputs, int[] plies) {
+        DecodeResult[] output = new DecodeResult[inputs.length];
+        decodeAll(inputs, plies, output);
+        return output;
+    }
+
+    public static void decodeAll(byte[][] inputs, int[] plies, DecodeResult[] output) {
+        Batch.forEach(inputs.length, i -> output[i] = decode(inputs[i], plies[i]));
+    }
+
+    // Replays the first plies of the game, without generating SAN or
+    // position hashes.
+    public static Position decodePosition(byte input[], int ply) {
+        return decodePosition(input, ply, null);
     }
 
-    private static String san(Move move, MoveList legals) {
+    // Like decodePosition(), but starts from the closest checkpoint.
+    public static Position decodePosition(byte input[], int ply, Checkpoints checkpoints) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            return decodePosition(context, input, ply, checkpoints);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static Position decodePosition(CodecContext context, byte input[], int ply, Checkpoints checkpoints) {
+        int checkpoint = checkpoints == null ? -1 : checkpoints.before(ply);
+        BitReader reader = context.reader;
+        reader.reset(input, checkpoint < 0 ? 0 : checkpoints.bitOffset(checkpoint));
+
+        Board board = start(context, checkpoints, checkpoint);
+        MoveList legals = context.legals;
+
+        int halfMoveClock = checkpoint < 0 ? 0 : checkpoints.position(checkpoint).halfMoveClock;
+
+        for (int i = checkpoint < 0 ? 0 : checkpoints.ply(checkpoint); i < ply; i++) {
+            context.legalMoves(board);
+            Move move = legals.get(Huffman.read(reader));
+            halfMoveClock = move.isZeroing() ? 0 : halfMoveClock + 1;
+            board.play(move);
+        }
+
+        return new Position(board, halfMoveClock, ply);
+    }
+
+    // Builds a checkpoint index with a snapshot every interval plies.
+    public static Checkpoints checkpoints(byte input[], int plies, int interval) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            return checkpoints(context, input, plies, interval);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static Checkpoints checkpoints(CodecContext context, byte input[], int plies, int interval) {
+        BitReader reader = context.reader;
+        reader.reset(input, 0);
+        Checkpoints.Builder builder = new Checkpoints.Builder(interval);
+
+        Board board = context.board;
+        board.reset();
+        MoveList legals = context.legals;
+
+        int halfMoveClock = 0;
+
+        for (int i = 0; i < plies; i++) {
+            context.legalMoves(board);
+            Move move = legals.get(Huffman.read(reader));
+            halfMoveClock = move.isZeroing() ? 0 : halfMoveClock + 1;
+            board.play(move);
+            builder.after(i + 1, board, halfMoveClock, reader.bitPosition());
+        }
+
+        return builder.build();
+    }
+
+    // Longest output for a single ply: move number, SAN, check suffix and
+    // spaces.
+    private static final int MAX_PLY_BYTES = 32;
+
+    // Writes PGN movetext like "1. e4 e5 2. Qh5 Nc6 3. Bc4 Nf6 4. Qxf7#"
+    // as ASCII. Throws BufferOverflowException if the buffer is too small.
+    public static void writePgn(byte input[], int plies, ByteBuffer out) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            writePgn(context, input, plies, out);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static void writePgn(CodecContext context, byte input[], int plies, ByteBuffer out) {
+        writePgn(context, input, plies, out, null);
+    }
+
+    public static void writePgn(byte input[], int plies, OutputStream out) throws IOException {
+        CodecContext context = CodecContext.acquire();
+        try {
+            writePgn(context, input, plies, out);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static void writePgn(CodecContext context, byte input[], int plies, OutputStream out) throws IOException {
+        ByteBuffer buffer = context.pgnBuffer;
+        buffer.clear();
+        try {
+            writePgn(context, input, plies, buffer, out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    }
+
+    private static void writePgn(CodecContext context, byte input[], int plies, ByteBuffer buffer, OutputStream out) {
+        BitReader reader = context.reader;
+        reader.reset(input, 0);
+
+        Board board = context.board;
+        board.reset();
+        MoveList legals = context.legals;
+
+        if (plies > 0) context.legalMoves(board);
+
+        for (int i = 0; i < plies; i++) {
+            if (out != null && buffer.remaining() < MAX_PLY_BYTES) {
+                try {
+                    out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                buffer.clear();
+            }
+
+            if (i > 0) buffer.put((byte) ' ');
+            if ((i & 1) == 0) {
+                writeInt((i >> 1) + 1, buffer);
+                buffer.put((byte) '.');
+                buffer.put((byte) ' ');
+            }
+
+            Move move = legals.get(Huffman.read(reader));
+            writeSan(move, legals, buffer);
+            board.play(move);
+
+            // Append check or checkmate suffix.
+            context.legalMoves(board);
+            if (board.isCheck()) buffer.put((byte) (legals.isEmpty() ? '#' : '+'));
+        }
+    }
+
+    public static void decode(byte input[], int plies, GameVisitor visitor) {
+        decode(input, 0, plies, null, visitor);
+    }
+
+    // Visits only the plies from fromPly (inclusive) to toPly (exclusive).
+    // With checkpoints, the earlier plies are mostly skipped, so disjoint
+    // segments of a long game can be decoded independently.
+    public static void decode(byte input[], int fromPly, int toPly, Checkpoints checkpoints, GameVisitor visitor) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            decode(context, input, fromPly, toPly, checkpoints, visitor);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static void decode(CodecContext context, byte input[], int fromPly, int toPly, Checkpoints checkpoints, GameVisitor visitor) {
+        int checkpoint = checkpoints == null ? -1 : checkpoints.before(fromPly);
+        BitReader reader = context.reader;
+        reader.reset(input, checkpoint < 0 ? 0 : checkpoints.bitOffset(checkpoint));
+
+        Board board = start(context, checkpoints, checkpoint);
+        MoveList legals = context.legals;
+
+        int i = checkpoint < 0 ? 0 : checkpoints.ply(checkpoint);
+        for (; i < fromPly; i++) {
+            context.legalMoves(board);
+            board.play(legals.get(Huffman.read(reader)));
+        }
+
+        if (i < toPly) context.legalMoves(board);
+
+        for (; i < toPly; i++) {
+            int index = Huffman.read(reader);
+            Move move = legals.get(index);
+
+            // Copy everything needed, because generating the next legal
+            // moves overwrites the move.
+            int from = move.from;
+            int to = move.type == Move.CASTLING ?
+                Square.combine(move.to < move.from ? Square.C1 : Square.G1, move.from) :
+                move.to;
+            Role role = move.role;
+            Role promotion = move.promotion;
+            boolean capture = move.capture;
+
+            board.play(move);
+            if (i + 1 < toPly) context.legalMoves(board);
+
+            visitor.visitMove(i, from, to, role, promotion, capture, board.isCheck(), index);
+        }
+    }
+
+    private static Board start(CodecContext context, Checkpoints checkpoints, int checkpoint) {
+        if (checkpoint < 0) {
+            context.board.reset();
+            return context.board;
+        }
+        return checkpoints.position(checkpoint).toBoard();
+    }
+
+    static String san(Move move, MoveList legals) {
         switch (move.type) {
             case Move.NORMAL:
             case Move.EN_PASSANT:
@@ -173,28 +646,9 @@ public class Encoder {
                 builder.append(move.role.symbol);
 
                 // From.
-                if (move.role != Role.PAWN) {
-                    boolean file = false, rank = false;
-                    long others = 0;
-
-                    for (int i = 0; i < legals.size(); i++) {
-                        Move other = legals.get(i);
-                        if (other.role == move.role && other.to == move.to && other.from != move.from) {
-                            others |= 1L << other.from;
-                        }
-                    }
-
-                    if (others != 0) {
-                        if ((others & Bitboard.RANKS[Square.rank(move.from)]) != 0) file = true;
-                        if ((others & Bitboard.FILES[Square.file(move.from)]) != 0) rank = true;
-                        else file = true;
-                    }
-
-                    if (file) builder.append((char) (Square.file(move.from) + 'a'));
-                    if (rank) builder.append((char) (Square.rank(move.from) + '1'));
-                } else if (move.capture) {
-                    builder.append((char) (Square.file(move.from) + 'a'));
-                }
+                int disambiguation = disambiguation(move, legals);
+                if ((disambiguation & FILE) != 0) builder.append((char) (Square.file(move.from) + 'a'));
+                if ((disambiguation & RANK) != 0) builder.append((char) (Square.rank(move.from) + '1'));
 
                 // Capture.
                 if (move.capture) builder.append('x');
@@ -218,6 +672,68 @@ public class Encoder {
         return "--";
     }
 
+    // Same as san(), but writes ASCII directly into the buffer.
+    private static void writeSan(Move move, MoveList legals, ByteBuffer out) {
+        switch (move.type) {
+            case Move.NORMAL:
+            case Move.EN_PASSANT:
+                if (move.role != Role.PAWN) out.put((byte) move.role.symbol.charAt(0));
+
+                int disambiguation = disambiguation(move, legals);
+                if ((disambiguation & FILE) != 0) out.put((byte) (Square.file(move.from) + 'a'));
+                if ((disambiguation & RANK) != 0) out.put((byte) (Square.rank(move.from) + '1'));
+
+                if (move.capture) out.put((byte) 'x');
+
+                out.put((byte) (Square.file(move.to) + 'a'));
+                out.put((byte) (Square.rank(move.to) + '1'));
+
+                if (move.promotion != null) {
+                    out.put((byte) '=');
+                    out.put((byte) move.promotion.symbol.charAt(0));
+                }
+                break;
+
+            case Move.CASTLING:
+                out.put(move.from < move.to ? CASTLE_SHORT : CASTLE_LONG);
+                break;
+        }
+    }
+
+    private static final int FILE = 1;
+    private static final int RANK = 2;
+
+    private static final byte CASTLE_SHORT[] = { 'O', '-', 'O' };
+    private static final byte CASTLE_LONG[] = { 'O', '-', 'O', '-', 'O' };
+
+    // Which parts of the origin square must be written to make the SAN of
+    // a normal move unambiguous.
+    private static int disambiguation(Move move, MoveList legals) {
+        if (move.role == Role.PAWN) return move.capture ? FILE : 0;
+
+        long others = 0;
+
+        for (int i = 0; i < legals.size(); i++) {
+            Move other = legals.get(i);
+            if (other.role == move.role && other.to == move.to && other.from != move.from) {
+                others |= 1L << other.from;
+            }
+        }
+
+        if (others == 0) return 0;
+
+        int result = 0;
+        if ((others & Bitboard.RANKS[Square.rank(move.from)]) != 0) result |= FILE;
+        if ((others & Bitboard.FILES[Square.file(move.from)]) != 0) result |= RANK;
+        else result |= FILE;
+        return result;
+    }
+
+    private static void writeInt(int n, ByteBuffer out) {
+        if (n >= 10) writeInt(n / 10, out);
+        out.put((byte) ('0' + n % 10));
+    }
+
     private static void setHash(byte buffer[], int ply, int hash) {
         // The hash for the starting position (ply = -1) goes last. The most
         // recent position goes first.
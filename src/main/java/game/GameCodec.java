@@ -0,0 +1,20 @@
+package org.lichess.compression.game;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+import org.lichess.compression.game.Encoder.DecodeResult;
+
+// A way to encode the moves of a game. Codecs are registered in GameCodecs
+// under a small id, which is written in front of the encoded moves, so that
+// new codecs can be rolled out without breaking stored games.
+public interface GameCodec {
+    // Between 0 and GameCodecs.MAX_ID.
+    int id();
+
+    // Appends the moves to the writer. Returns false if the moves are not
+    // legal.
+    boolean encode(CodecContext context, String pgnMoves[], BitWriter writer);
+
+    // Decodes plies moves, starting at the current position of the reader.
+    DecodeResult decode(CodecContext context, BitReader reader, int plies);
+}
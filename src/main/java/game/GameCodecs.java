@@ -0,0 +1,200 @@
+package org.lichess.compression.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+import org.lichess.compression.game.Encoder.DecodeResult;
+
+// Registry of game codecs, and the versioned format that names the codec in
+// a one byte header: 0b11111iii, where iii is the codec id.
+//
+// Bytes from Encoder.encode() have no header. They still decode, because
+// their first byte can never look like a header: it starts with the
+// Huffman code of one of the 20 legal moves in the initial position, and
+// none of those codes begin with 11111.
+public final class GameCodecs {
+    public static final int MAX_ID = 7;
+
+    private static final int HEADER_MASK = 0xf8;
+
+    // The codec of Encoder, also used for bytes without a header.
+    public static final GameCodec HUFFMAN = new GameCodec() {
+        public int id() {
+            return 0;
+        }
+
+        public boolean encode(CodecContext context, String pgnMoves[], BitWriter writer) {
+            return Encoder.encode(context, pgnMoves, writer);
+        }
+
+        public DecodeResult decode(CodecContext context, BitReader reader, int plies) {
+            return Encoder.decode(context, reader, plies);
+        }
+    };
+
+    // Canonical code of at most 16 bits, with table driven decoding.
+    public static final GameCodec CANONICAL = new GameCodec() {
+        public int id() {
+            return 1;
+        }
+
+        public boolean encode(CodecContext context, String pgnMoves[], BitWriter writer) {
+            return Encoder.encode(context, pgnMoves, writer, CanonicalHuffman.DEFAULT);
+        }
+
+        public DecodeResult decode(CodecContext context, BitReader reader, int plies) {
+            return Encoder.decode(context, reader, plies, CanonicalHuffman.DEFAULT);
+        }
+    };
+
+    // Canonical codes chosen by the number of legal moves and check. Not
+    // registered: the tables are trained data, so give each set of tables
+    // its own free id and register it to use it.
+    public static GameCodec contextHuffman(final int id, final ContextHuffman tables) {
+        checkId(id);
+        return new GameCodec() {
+            public int id() {
+                return id;
+            }
+
+            public boolean encode(CodecContext context, String pgnMoves[], BitWriter writer) {
+                return Encoder.encode(context, pgnMoves, writer, tables);
+            }
+
+            public DecodeResult decode(CodecContext context, BitReader reader, int plies) {
+                return Encoder.decode(context, reader, plies, tables);
+            }
+        };
+    }
+
+    // rANS with the contexts of ContextHuffman. Not registered: on typical
+    // games the flushed states outweigh the gain over Huffman codes, so it
+    // gets no permanent id. Register it under a free id to use it.
+    public static GameCodec rans(final int id, final Rans model) {
+        checkId(id);
+        return new GameCodec() {
+            public int id() {
+                return id;
+            }
+
+            public boolean encode(CodecContext context, String pgnMoves[], BitWriter writer) {
+                Rans.Writer coder = model.new Writer(pgnMoves.length);
+                if (!Encoder.encode(context, pgnMoves, writer, coder)) return false;
+                coder.flush(writer);
+                return true;
+            }
+
+            public DecodeResult decode(CodecContext context, BitReader reader, int plies) {
+                return Encoder.decode(context, reader, plies, model.new Reader(plies));
+            }
+        };
+    }
+
+    // Huffman, with the legal moves reordered by the squares each side
+    // recently moved to. Not registered: the gain has not been measured on
+    // real games yet, so it gets no permanent id. Register it under a free
+    // id to use it.
+    public static GameCodec history(final int id) {
+        checkId(id);
+        return new GameCodec() {
+            public int id() {
+                return id;
+            }
+
+            public boolean encode(CodecContext context, String pgnMoves[], BitWriter writer) {
+                context.history.reset();
+                return Encoder.encode(context, pgnMoves, writer, Encoder.HUFFMAN, context.history);
+            }
+
+            public DecodeResult decode(CodecContext context, BitReader reader, int plies) {
+                context.history.reset();
+                return Encoder.decode(context, reader, plies, Encoder.HUFFMAN, context.history);
+            }
+        };
+    }
+
+    private static final AtomicReferenceArray<GameCodec> CODECS = new AtomicReferenceArray<GameCodec>(MAX_ID + 1);
+
+    static {
+        register(HUFFMAN);
+        register(CANONICAL);
+    }
+
+    private GameCodecs() {}
+
+    public static void register(GameCodec codec) {
+        int id = codec.id();
+        checkId(id);
+        if (!CODECS.compareAndSet(id, null, codec)) throw new IllegalStateException("codec id already registered: " + id);
+    }
+
+    private static void checkId(int id) {
+        if (id < 0 || id > MAX_ID) throw new IllegalArgumentException("codec id out of range: " + id);
+    }
+
+    public static GameCodec get(int id) {
+        GameCodec codec = id < 0 || id > MAX_ID ? null : CODECS.get(id);
+        if (codec == null) throw new IllegalArgumentException("unknown game codec: " + id);
+        return codec;
+    }
+
+    // All registered codecs, by id.
+    public static List<GameCodec> all() {
+        List<GameCodec> codecs = new ArrayList<GameCodec>();
+        for (int id = 0; id <= MAX_ID; id++) {
+            GameCodec codec = CODECS.get(id);
+            if (codec != null) codecs.add(codec);
+        }
+        return codecs;
+    }
+
+    // Encodes with a header. Returns null if the moves are not legal.
+    public static byte[] encode(GameCodec codec, String pgnMoves[]) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            return encode(context, codec, pgnMoves);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static byte[] encode(CodecContext context, GameCodec codec, String pgnMoves[]) {
+        BitWriter writer = context.writer;
+        writer.reset();
+        writer.writeBits(HEADER_MASK | codec.id(), 8);
+        return codec.encode(context, pgnMoves, writer) ? writer.toArray() : null;
+    }
+
+    // Decodes bytes with or without a header.
+    public static DecodeResult decode(byte input[], int plies) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            return decode(context, input, plies);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    public static DecodeResult decode(CodecContext context, byte input[], int plies) {
+        BitReader reader = context.reader;
+        if (hasHeader(input)) {
+            reader.reset(input, 8);
+            return get(input[0] & MAX_ID).decode(context, reader, plies);
+        } else {
+            reader.reset(input, 0);
+            return HUFFMAN.decode(context, reader, plies);
+        }
+    }
+
+    // The codec that was used to encode the bytes.
+    public static GameCodec codecOf(byte input[]) {
+        return hasHeader(input) ? get(input[0] & MAX_ID) : HUFFMAN;
+    }
+
+    private static boolean hasHeader(byte input[]) {
+        return input.length > 0 && (input[0] & HEADER_MASK) == HEADER_MASK;
+    }
+}
@@ -0,0 +1,100 @@
+package org.lichess.compression.game;
+
+import java.util.NoSuchElementException;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+import org.lichess.compression.VarIntEncoder;
+import org.lichess.compression.game.Encoder.DecodeResult;
+
+// Self-delimiting encoding of games, so that neither a single game nor
+// games packed back-to-back need the number of plies stored elsewhere.
+//
+// Each game is the varint plies + 1, followed by the moves as in Encoder.
+// Games follow each other without padding. The stream ends when fewer
+// than 6 bits are left, or at a zero varint (which is what the padding of
+// the last byte reads as).
+public final class GameStream {
+    private GameStream() {}
+
+    // Returns null if the moves are not legal.
+    public static byte[] encode(String pgnMoves[]) {
+        Writer writer = new Writer();
+        return writer.add(pgnMoves) ? writer.toArray() : null;
+    }
+
+    // Decodes the first game.
+    public static DecodeResult decode(byte input[]) {
+        DecodeResult result = new Reader(input).next();
+        if (result == null) throw new IllegalArgumentException("empty stream");
+        return result;
+    }
+
+    public static final class Writer {
+        private final CodecContext context = new CodecContext();
+        private final BitWriter writer = new BitWriter();
+
+        // Appends a game. Returns false and leaves the stream unchanged if
+        // the moves are not legal.
+        public boolean add(String pgnMoves[]) {
+            byte moves[] = Encoder.encode(context, pgnMoves);
+            if (moves == null) return false;
+
+            VarIntEncoder.writeUnsigned(pgnMoves.length + 1, writer);
+
+            // Copy the moves without their padding.
+            BitReader reader = context.reader;
+            reader.reset(moves, 0);
+            int bits = context.writer.bitLength();
+            for (; bits >= 16; bits -= 16) writer.writeBits(reader.readBits(16), 16);
+            if (bits > 0) writer.writeBits(reader.readBits(bits), bits);
+            return true;
+        }
+
+        public int bitLength() {
+            return writer.bitLength();
+        }
+
+        public byte[] toArray() {
+            return writer.toArray();
+        }
+    }
+
+    public static final class Reader {
+        private final CodecContext context = new CodecContext();
+        private final byte input[];
+        private final BitReader reader;
+
+        public Reader(byte input[]) {
+            this.input = input;
+            this.reader = new BitReader(input);
+        }
+
+        // Returns null at the end of the stream.
+        public DecodeResult next() {
+            int plies = nextPlies();
+            return plies < 0 ? null : Encoder.decode(context, reader, plies);
+        }
+
+        // Skips the next game, without replaying the moves. Returns the
+        // number of plies, or -1 at the end of the stream.
+        public int skip() {
+            int plies = nextPlies();
+            for (int i = 0; i < plies; i++) Huffman.read(reader);
+            return plies;
+        }
+
+        public boolean hasNext() {
+            if (reader.remainingBits() < 6) return false;
+            int position = reader.bitPosition();
+            boolean hasNext = VarIntEncoder.readUnsigned(reader) != 0;
+            reader.reset(input, position);
+            return hasNext;
+        }
+
+        private int nextPlies() {
+            if (reader.remainingBits() < 6) return -1;
+            return VarIntEncoder.readUnsigned(reader) - 1;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.lichess.compression.game;
+
+public interface GameVisitor {
+    // Called once for every decoded ply, in order. Squares are numbered
+    // from 0 (a1) to 63 (h8). For castling moves the target is the square
+    // the king lands on, like in UCI. The index is the position of the move
+    // in the ordered list of legal moves, i.e. the symbol that was Huffman
+    // coded.
+    //
+    // Nothing is allocated per ply, so implementations that do not allocate
+    // themselves can decode without producing garbage.
+    void visitMove(int ply, int from, int to, Role role, Role promotion, boolean capture, boolean check, int index);
+}
@@ -19,6 +19,11 @@ class Huffman {
         return node.leaf;
     }
 
+    // Length of the code for the index.
+    static int bits(int value) {
+        return CODES[value].bits;
+    }
+
     private static class Symbol {
         public final int code;
         public final int bits;
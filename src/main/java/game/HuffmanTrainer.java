@@ -0,0 +1,283 @@
+package org.lichess.compression.game;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.lichess.compression.Batch;
+import org.lichess.compression.BitReader;
+
+// Counts move index frequencies in a corpus of games, and builds a length
+// limited Huffman code for them, so that the tables can be retrained on
+// recent games.
+//
+// Games are counted in parallel. Each task counts into its own histogram,
+// and histograms are only merged when the task is done.
+public final class HuffmanTrainer {
+    public static final int SYMBOLS = 256;
+
+    private final boolean contexts;
+    private final MoveScorer scorer;
+    private final long counts[] = new long[SYMBOLS];
+    private final long contextCounts[][];
+    private long games = 0;
+
+    public HuffmanTrainer() {
+        this(false);
+    }
+
+    // With contexts, games are replayed to also count move indexes for each
+    // context of ContextHuffman. This is much slower.
+    public HuffmanTrainer(boolean contexts) {
+        this(contexts, MoveScorer.DEFAULT);
+    }
+
+    // Counts move indexes in the order of the given scorer. Encoded games
+    // must have been encoded with the same scorer.
+    public HuffmanTrainer(boolean contexts, MoveScorer scorer) {
+        this.contexts = contexts;
+        this.scorer = scorer;
+        this.contextCounts = new long[contexts ? ContextHuffman.CONTEXTS : 0][SYMBOLS];
+    }
+
+    // Counts encoded games.
+    public void addAll(byte inputs[][], int plies[]) {
+        addAll(inputs.length, (i, histogram) -> histogram.count(inputs[i], plies[i]));
+    }
+
+    // Counts games given in SAN. Illegal games are skipped.
+    public void addAll(List<String[]> games) {
+        addAll(games.size(), (i, histogram) -> {
+            String pgnMoves[] = games.get(i);
+            byte input[] = Encoder.encode(histogram.context, pgnMoves);
+            if (input != null) histogram.count(input, pgnMoves.length);
+        });
+    }
+
+    private interface Counter {
+        void count(int i, Histogram histogram);
+    }
+
+    private final class Histogram {
+        final long counts[] = new long[SYMBOLS];
+        final long contextCounts[][] = new long[contexts ? ContextHuffman.CONTEXTS : 0][SYMBOLS];
+        final CodecContext context = new CodecContext(scorer);
+        long games = 0;
+
+        void count(byte input[], int plies) {
+            BitReader reader = context.reader;
+            reader.reset(input, 0);
+            games++;
+
+            if (!contexts) {
+                for (int ply = 0; ply < plies; ply++) counts[Huffman.read(reader)]++;
+                return;
+            }
+
+            Board board = context.board;
+            board.reset();
+            MoveList legals = context.legals;
+            for (int ply = 0; ply < plies; ply++) {
+                context.legalMoves(board);
+                int index = Huffman.read(reader);
+                counts[index]++;
+                contextCounts[ContextHuffman.context(legals.size(), board.isCheck())][index]++;
+                board.play(legals.get(index));
+            }
+        }
+    }
+
+    private void addAll(int size, Counter counter) {
+        int tasks = Math.min(size, 4 * Runtime.getRuntime().availableProcessors());
+        Batch.forEach(tasks, task -> {
+            Histogram histogram = new Histogram();
+            for (int i = task; i < size; i += tasks) counter.count(i, histogram);
+            merge(histogram);
+        });
+    }
+
+    // Only games that were counted, so skipped games do not dilute the
+    // bits per game.
+    private synchronized void merge(Histogram histogram) {
+        games += histogram.games;
+        for (int i = 0; i < SYMBOLS; i++) counts[i] += histogram.counts[i];
+        for (int context = 0; context < contextCounts.length; context++) {
+            for (int i = 0; i < SYMBOLS; i++) contextCounts[context][i] += histogram.contextCounts[context][i];
+        }
+    }
+
+    public synchronized long[] counts() {
+        return counts.clone();
+    }
+
+    // Counts for each context of ContextHuffman. Only available if the
+    // trainer was created with contexts.
+    public synchronized long[][] contextCounts() {
+        if (!contexts) throw new IllegalStateException("trainer does not count contexts");
+        long copy[][] = new long[contextCounts.length][];
+        for (int context = 0; context < copy.length; context++) copy[context] = contextCounts[context].clone();
+        return copy;
+    }
+
+    public synchronized long games() {
+        return games;
+    }
+
+    // Optimal code lengths of at most maxBits, using the package-merge
+    // algorithm. Indexes that never occurred are counted once, so that
+    // every index can still be encoded.
+    public static int[] codeLengths(long counts[], int maxBits) {
+        int n = counts.length;
+        if (n < 2 || n > 1 << Math.min(maxBits, 30)) throw new IllegalArgumentException("can not fit " + n + " codes in " + maxBits + " bits");
+
+        Integer order[] = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(Math.max(1, counts[a]), Math.max(1, counts[b])));
+
+        long leafWeights[] = new long[n];
+        for (int i = 0; i < n; i++) leafWeights[i] = Math.max(1, counts[order[i]]);
+
+        // Items of each level, sorted by weight. An item is either a leaf
+        // (stored as -1 - rank) or a package of the items 2p and 2p + 1 of
+        // the previous level (stored as p).
+        int items[][] = new int[maxBits][];
+        long weights[] = leafWeights;
+        items[0] = new int[n];
+        for (int i = 0; i < n; i++) items[0][i] = -1 - i;
+
+        for (int level = 1; level < maxBits; level++) {
+            int packages = weights.length / 2;
+            int size = n + packages;
+            int merged[] = new int[size];
+            long mergedWeights[] = new long[size];
+
+            int leaf = 0, pkg = 0;
+            for (int k = 0; k < size; k++) {
+                long packageWeight = pkg < packages ? weights[2 * pkg] + weights[2 * pkg + 1] : Long.MAX_VALUE;
+                if (leaf < n && leafWeights[leaf] <= packageWeight) {
+                    merged[k] = -1 - leaf;
+                    mergedWeights[k] = leafWeights[leaf++];
+                } else {
+                    merged[k] = pkg;
+                    mergedWeights[k] = packageWeight;
+                    pkg++;
+                }
+            }
+
+            items[level] = merged;
+            weights = mergedWeights;
+        }
+
+        // Every time a leaf is part of a selected item, its code gets one
+        // bit longer.
+        int lengths[] = new int[n];
+        for (int k = 0; k < 2 * n - 2; k++) expand(items, maxBits - 1, k, order, lengths);
+        return lengths;
+    }
+
+    private static void expand(int items[][], int level, int k, Integer order[], int lengths[]) {
+        int item = items[level][k];
+        if (item < 0) {
+            lengths[order[-1 - item]]++;
+        } else {
+            expand(items, level - 1, 2 * item, order, lengths);
+            expand(items, level - 1, 2 * item + 1, order, lengths);
+        }
+    }
+
+    // Canonical codes for the given lengths: shorter codes first, and codes
+    // of the same length in order of their index.
+    public static int[] canonicalCodes(int lengths[]) {
+        Integer order[] = new Integer[lengths.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> lengths[a] != lengths[b] ? lengths[a] - lengths[b] : a - b);
+
+        int codes[] = new int[lengths.length];
+        int code = 0, previous = lengths[order[0]];
+        for (int i: order) {
+            code <<= lengths[i] - previous;
+            previous = lengths[i];
+            codes[i] = code++;
+        }
+        return codes;
+    }
+
+    // Code lengths of the built-in table.
+    public static int[] currentLengths() {
+        int lengths[] = new int[SYMBOLS];
+        for (int i = 0; i < SYMBOLS; i++) lengths[i] = Huffman.bits(i);
+        return lengths;
+    }
+
+    // Shannon entropy of the move indexes in bits per move, a lower bound
+    // for any code that ignores context.
+    public static double entropy(long counts[]) {
+        long moves = 0;
+        for (long count: counts) moves += count;
+        double bits = 0;
+        for (long count: counts) {
+            if (count > 0) bits -= count * Math.log((double) count / moves);
+        }
+        return moves == 0 ? 0 : bits / moves / Math.log(2);
+    }
+
+    public static double bitsPerMove(long counts[], int lengths[]) {
+        long moves = 0, bits = 0;
+        for (int i = 0; i < counts.length; i++) {
+            moves += counts[i];
+            bits += counts[i] * lengths[i];
+        }
+        return moves == 0 ? 0 : (double) bits / moves;
+    }
+
+    public static double bitsPerMove(long contextCounts[][], ContextHuffman coder) {
+        long moves = 0, bits = 0;
+        for (int context = 0; context < contextCounts.length; context++) {
+            int lengths[] = coder.lengths(context);
+            for (int i = 0; i < contextCounts[context].length; i++) {
+                long count = contextCounts[context][i];
+                moves += count;
+                if (count > 0) bits += count * lengths[i];
+            }
+        }
+        return moves == 0 ? 0 : (double) bits / moves;
+    }
+
+    // Compares the built-in table with the given context tables on the
+    // counted games.
+    public synchronized String report(ContextHuffman coder) {
+        double before = bitsPerMove(counts, currentLengths());
+        double after = bitsPerMove(contextCounts(), coder);
+        return String.format(
+            "current: %.3f bytes per move%ncontexts: %.3f bytes per move (%+.2f%%)",
+            before / 8, after / 8, before == 0 ? 0 : 100 * (after - before) / before);
+    }
+
+    // Compares the built-in table with the given code lengths on the
+    // counted games.
+    public synchronized String report(int lengths[]) {
+        long moves = 0;
+        for (long count: counts) moves += count;
+        double before = bitsPerMove(counts, currentLengths());
+        double after = bitsPerMove(counts, lengths);
+        return String.format(
+            "%d games, %d moves%n" +
+            "current: %.3f bytes per game, %.3f bytes per move%n" +
+            "trained: %.3f bytes per game, %.3f bytes per move (%+.2f%%)",
+            games, moves,
+            before * moves / 8 / Math.max(1, games), before / 8,
+            after * moves / 8 / Math.max(1, games), after / 8,
+            before == 0 ? 0 : 100 * (after - before) / before);
+    }
+
+    // The table as Java source, in the format of Huffman.CODES.
+    public synchronized String table(int lengths[]) {
+        int codes[] = canonicalCodes(lengths);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lengths.length; i++) {
+            String bits = Integer.toBinaryString(codes[i]);
+            while (bits.length() < lengths[i]) bits = "0" + bits;
+            builder.append(String.format("new Symbol(0b%s, %d), // %d: %d%n", bits, lengths[i], i, counts[i]));
+        }
+        return builder.toString();
+    }
+}
@@ -14,7 +14,7 @@ final class Move implements Comparable<Move> {
 
     private int score;
 
-    void set(Board board, int type, Role role, int from, boolean capture, int to, Role promotion) {
+    void set(Board board, MoveScorer scorer, int type, Role role, int from, boolean capture, int to, Role promotion) {
         // Overwrite the current move. This is like a constructor, but reuses
         // an existing object.
 
@@ -25,30 +25,42 @@ final class Move implements Comparable<Move> {
         this.to = to;
         this.promotion = promotion;
 
-        // Assign higher scores to moves that are more likely to be played.
-        //
-        // Scores must be unique for every move in the position, because
-        // move ordering should never depend on implementation details of the
-        // generator.
-
-        long defendingPawns =
-            Bitboard.pawnAttacks(board.turn, to) &
-            board.pawns &
-            board.them();
-
-        int moveValue = pieceValue(board, role, to) - pieceValue(board, role, from);
-
-        this.score =
-            (promotion == null ? 0 : promotion.index << 26) +
-            (capture ? 1 << 25 : 0) +
-            ((defendingPawns == 0 ? 6 : (5 - role.index)) << 22) +
-            (512 + moveValue << 12) +
-            (to << 6) +
-            from;
+        this.score = scorer.score(board.turn, board.us(), board.them(), board.pawns, role, from, capture, to, promotion);
+    }
+
+    // Packs the move and its score into a single long, so that it can be
+    // restored without the board it was generated from.
+    long pack() {
+        return ((long) this.score << 32) |
+            (this.type << 19) |
+            (this.capture ? 1 << 18 : 0) |
+            ((this.promotion == null ? 0 : this.promotion.index + 1) << 15) |
+            (this.role.index << 12) |
+            (this.to << 6) |
+            this.from;
+    }
+
+    void unpack(long packed) {
+        int bits = (int) packed;
+        int promotion = (bits >>> 15) & 7;
+
+        this.type = bits >>> 19;
+        this.role = ROLES[(bits >>> 12) & 7];
+        this.from = bits & 63;
+        this.capture = (bits & (1 << 18)) != 0;
+        this.to = (bits >>> 6) & 63;
+        this.promotion = promotion == 0 ? null : ROLES[promotion - 1];
+        this.score = (int) (packed >>> 32);
+    }
+
+    private static final Role ROLES[] = Role.values();
+
+    int score() {
+        return score;
     }
 
     public int compareTo(Move other) {
-        return other.score - this.score;
+        return Integer.compare(other.score, this.score);
     }
 
     public String uci() {
@@ -75,69 +87,4 @@ final class Move implements Comparable<Move> {
     public boolean isIrreversible() {
         return this.isZeroing() || this.type == CASTLING;
     }
-
-    // Piece-Square table with some manual tweaks (breaking symmetry).
-    //
-    // Original table taken from:
-    // https://github.com/flok99/feeks/blob/f02e4897555ac08497a5fea43f241bad30f2ecff/psq.py#L8-L67
-
-    private static int pieceValue(Board board, Role role, int square) {
-        return PSQT[role.index][board.turn ? Square.mirror(square) : square];
-    }
-
-    private static final int PSQT[][] = {
-        {   0,  0,  0,  0,  0,  0,  0,  0,
-           50, 50, 50, 50, 50, 50, 50, 50,
-           10, 10, 20, 30, 30, 20, 10, 10,
-            5,  5, 10, 25, 25, 10,  5,  5,
-            0,  0,  0, 20, 21,  0,  0,  0,
-            5, -5,-10,  0,  0,-10, -5,  5,
-            5, 10, 10,-31,-31, 10, 10,  5,
-            0,  0,  0,  0,  0,  0,  0,  0 },
-
-        { -50,-40,-30,-30,-30,-30,-40,-50,
-          -40,-20,  0,  0,  0,  0,-20,-40,
-          -30,  0, 10, 15, 15, 10,  0,-30,
-          -30,  5, 15, 20, 20, 15,  5,-30,
-          -30,  0, 15, 20, 20, 15,  0,-30,
-          -30,  5, 10, 15, 15, 11,  5,-30,
-          -40,-20,  0,  5,  5,  0,-20,-40,
-          -50,-40,-30,-30,-30,-30,-40,-50 },
-
-        { -20,-10,-10,-10,-10,-10,-10,-20,
-          -10,  0,  0,  0,  0,  0,  0,-10,
-          -10,  0,  5, 10, 10,  5,  0,-10,
-          -10,  5,  5, 10, 10,  5,  5,-10,
-          -10,  0, 10, 10, 10, 10,  0,-10,
-          -10, 10, 10, 10, 10, 10, 10,-10,
-          -10,  5,  0,  0,  0,  0,  5,-10,
-          -20,-10,-10,-10,-10,-10,-10,-20 },
-
-        {   0,  0,  0,  0,  0,  0,  0,  0,
-            5, 10, 10, 10, 10, 10, 10,  5,
-           -5,  0,  0,  0,  0,  0,  0, -5,
-           -5,  0,  0,  0,  0,  0,  0, -5,
-           -5,  0,  0,  0,  0,  0,  0, -5,
-           -5,  0,  0,  0,  0,  0,  0, -5,
-           -5,  0,  0,  0,  0,  0,  0, -5,
-            0,  0,  0,  5,  5,  0,  0,  0 },
-
-        { -20,-10,-10, -5, -5,-10,-10,-20,
-          -10,  0,  0,  0,  0,  0,  0,-10,
-          -10,  0,  5,  5,  5,  5,  0,-10,
-           -5,  0,  5,  5,  5,  5,  0, -5,
-            0,  0,  5,  5,  5,  5,  0, -5,
-          -10,  5,  5,  5,  5,  5,  0,-10,
-          -10,  0,  5,  0,  0,  0,  0,-10,
-          -20,-10,-10, -5, -5,-10,-10,-20 },
-
-        { -30,-40,-40,-50,-50,-40,-40,-30,
-          -30,-40,-40,-50,-50,-40,-40,-30,
-          -30,-40,-40,-50,-50,-40,-40,-30,
-          -30,-40,-40,-50,-50,-40,-40,-30,
-          -20,-30,-30,-40,-40,-30,-30,-20,
-          -10,-20,-20,-20,-20,-20,-20,-10,
-           20, 20,  0,  0,  0,  0, 20, 20,
-            0, 30, 10,  0,  0, 10, 30,  0 }
-    };
 }
@@ -0,0 +1,158 @@
+package org.lichess.compression.game;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Transposition table of sorted legal move lists. The same positions come
+// up again and again across games, so instead of generating and sorting
+// the moves every time, the ordered list is stored per position.
+//
+// The table has a fixed number of slots and is lock-free: entries are
+// immutable and simply replace whatever was in their slot before. Probes
+// compare the full position, so hash collisions can never return wrong
+// moves.
+public final class MoveCache {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final MoveScorer scorer;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // The number of slots is rounded up to a power of two.
+    public MoveCache(int capacity) {
+        this(capacity, MoveScorer.DEFAULT);
+    }
+
+    // Caches move lists ordered by the given scorer. Contexts that use the
+    // cache also use its scorer.
+    public MoveCache(int capacity, MoveScorer scorer) {
+        this.scorer = scorer;
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        if (capacity <= 1) size = 1;
+        this.slots = new AtomicReferenceArray<Entry>(size);
+        this.mask = size - 1;
+    }
+
+    public MoveScorer scorer() {
+        return scorer;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    // Number of entries that were overwritten by a different position.
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        long hits = hits(), total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    // Fills legals with the legal moves in the position, sorted by
+    // move index.
+    void legalMoves(Board board, MoveList legals) {
+        long key = key(board);
+        int slot = (int) key & mask;
+
+        Entry entry = slots.get(slot);
+        if (entry != null && entry.key == key && entry.matches(board)) {
+            hits.increment();
+            legals.clear();
+            for (long move: entry.moves) legals.pushPacked(move);
+            return;
+        }
+
+        misses.increment();
+        board.legalMoves(legals);
+        legals.sort();
+
+        long moves[] = new long[legals.size()];
+        for (int i = 0; i < moves.length; i++) moves[i] = legals.get(i).pack();
+
+        Entry previous = slots.getAndSet(slot, new Entry(key, board, moves));
+        if (previous != null && !(previous.key == key && previous.matches(board))) {
+            evictions.increment();
+        }
+    }
+
+    private static long key(Board board) {
+        long h = mix(board.pawns);
+        h = mix(h ^ board.knights);
+        h = mix(h ^ board.bishops);
+        h = mix(h ^ board.rooks);
+        h = mix(h ^ board.queens);
+        h = mix(h ^ board.kings);
+        h = mix(h ^ board.white);
+        h = mix(h ^ board.castlingRights);
+        return mix(h ^ (board.epSquare << 1 | (board.turn ? 1 : 0)));
+    }
+
+    // Finalizer from SplitMix64.
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static final class Entry {
+        final long key;
+
+        final long pawns;
+        final long knights;
+        final long bishops;
+        final long rooks;
+        final long queens;
+        final long kings;
+        final long white;
+        final long black;
+        final boolean turn;
+        final int epSquare;
+        final long castlingRights;
+
+        final long moves[];
+
+        Entry(long key, Board board, long moves[]) {
+            this.key = key;
+            this.pawns = board.pawns;
+            this.knights = board.knights;
+            this.bishops = board.bishops;
+            this.rooks = board.rooks;
+            this.queens = board.queens;
+            this.kings = board.kings;
+            this.white = board.white;
+            this.black = board.black;
+            this.turn = board.turn;
+            this.epSquare = board.epSquare;
+            this.castlingRights = board.castlingRights;
+            this.moves = moves;
+        }
+
+        boolean matches(Board board) {
+            return
+                pawns == board.pawns &&
+                knights == board.knights &&
+                bishops == board.bishops &&
+                rooks == board.rooks &&
+                queens == board.queens &&
+                kings == board.kings &&
+                white == board.white &&
+                black == board.black &&
+                turn == board.turn &&
+                epSquare == board.epSquare &&
+                castlingRights == board.castlingRights;
+        }
+    }
+}
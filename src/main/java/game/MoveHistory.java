@@ -0,0 +1,48 @@
+package org.lichess.compression.game;
+
+// An adaptive move ordering model for a single game. Both sides keep a
+// history of the squares their pieces moved to, decaying with every move.
+// Moves to squares with a recent history are ranked higher than their
+// static score alone would rank them.
+//
+// The encoder and decoder must update the history with exactly the same
+// moves, so it only depends on the moves played so far.
+final class MoveHistory {
+    // Weight of a move in the history, and the decay per move of the same
+    // side. The steady state weight of a square is INCREMENT << DECAY_SHIFT.
+    private static final int INCREMENT = 16;
+    private static final int DECAY_SHIFT = 2;
+
+    // Scale of the history relative to the static move score. One unit is
+    // one point of the piece-square table.
+    private static final int SCORE_SHIFT = 12;
+
+    private final int table[] = new int[2 * 64];
+
+    void reset() {
+        for (int i = 0; i < table.length; i++) table[i] = 0;
+    }
+
+    // Reorders moves that are sorted by static score. Moves with equal
+    // adjusted scores keep their static order.
+    void reorder(boolean turn, MoveList legals) {
+        int offset = turn ? 0 : 64;
+        int size = legals.size();
+        for (int i = 1; i < size; i++) {
+            int score = adjustedScore(offset, legals.get(i));
+            int j = i;
+            while (j > 0 && adjustedScore(offset, legals.get(j - 1)) < score) j--;
+            legals.move(i, j);
+        }
+    }
+
+    void update(boolean turn, Move played) {
+        int offset = turn ? 0 : 64;
+        for (int i = offset; i < offset + 64; i++) table[i] -= table[i] >> DECAY_SHIFT;
+        table[offset + played.to] += INCREMENT;
+    }
+
+    private int adjustedScore(int offset, Move move) {
+        return move.score() + (table[offset + move.to] << SCORE_SHIFT);
+    }
+}
@@ -0,0 +1,6 @@
+package org.lichess.compression.game;
+
+// Entropy code for indexes in the sorted legal move list, for codes that
+// can both write and read a move at a time.
+interface MoveIndexCoder extends MoveIndexEncoder, MoveIndexDecoder {
+}
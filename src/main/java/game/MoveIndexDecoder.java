@@ -0,0 +1,8 @@
+package org.lichess.compression.game;
+
+import org.lichess.compression.BitReader;
+
+// Reads indexes written by the matching MoveIndexEncoder.
+interface MoveIndexDecoder {
+    int read(int numLegals, boolean check, BitReader reader);
+}
@@ -0,0 +1,10 @@
+package org.lichess.compression.game;
+
+import org.lichess.compression.BitWriter;
+
+// Writes indexes in the sorted legal move list. The number of legal moves
+// and whether the side to move is in check are known to both the encoder
+// and the decoder, so codes may depend on them.
+interface MoveIndexEncoder {
+    void write(int index, int numLegals, boolean check, BitWriter writer);
+}
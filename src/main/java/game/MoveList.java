@@ -10,11 +10,19 @@ final class MoveList {
     private final Move buffer[];
     private int size = 0;
 
+    // Scores the moves for sort().
+    private final MoveScorer scorer;
+
     public MoveList() {
         this(256);
     }
 
     public MoveList(int capacity) {
+        this(capacity, MoveScorer.DEFAULT);
+    }
+
+    public MoveList(int capacity, MoveScorer scorer) {
+        this.scorer = scorer;
         buffer = new Move[capacity];
 
         for (int i = 0; i < buffer.length; i++) {
@@ -22,6 +30,10 @@ final class MoveList {
         }
     }
 
+    public MoveScorer scorer() {
+        return scorer;
+    }
+
     public void clear() {
         size = 0;
     }
@@ -40,25 +52,39 @@ final class MoveList {
     }
 
     public void pushNormal(Board board, Role role, int from, boolean capture, int to) {
-        buffer[size++].set(board, Move.NORMAL, role, from, capture, to, null);
+        buffer[size++].set(board, scorer, Move.NORMAL, role, from, capture, to, null);
     }
 
     public void pushPromotion(Board board, int from, boolean capture, int to, Role promotion) {
-        buffer[size++].set(board, Move.NORMAL, Role.PAWN, from, capture, to, promotion);
+        buffer[size++].set(board, scorer, Move.NORMAL, Role.PAWN, from, capture, to, promotion);
     }
 
     public void pushCastle(Board board, int king, int rook) {
-        buffer[size++].set(board, Move.CASTLING, Role.KING, king, false, rook, null);
+        buffer[size++].set(board, scorer, Move.CASTLING, Role.KING, king, false, rook, null);
     }
 
     public void pushEnPassant(Board board, int capturer, int to) {
-        buffer[size++].set(board, Move.EN_PASSANT, Role.PAWN, capturer, true, to, null);
+        buffer[size++].set(board, scorer, Move.EN_PASSANT, Role.PAWN, capturer, true, to, null);
+    }
+
+    void pushPacked(long packed) {
+        buffer[size++].unpack(packed);
     }
 
     public void sort() {
         Arrays.sort(buffer, 0, size, null);
     }
 
+    // Moves the move at index from to index to, shifting the moves in
+    // between.
+    void move(int from, int to) {
+        assert from < size && to < size;
+        Move tmp = buffer[from];
+        if (from > to) System.arraycopy(buffer, to, buffer, to + 1, from - to);
+        else System.arraycopy(buffer, from + 1, buffer, from, to - from);
+        buffer[to] = tmp;
+    }
+
     public boolean anyMatch(Predicate<Move> predicate) {
         for (int i = 0; i < size; i++) {
             if (predicate.test(buffer[i]))
@@ -0,0 +1,26 @@
+package org.lichess.compression.game;
+
+// Decides the order of the legal moves, and so the move index that is
+// encoded for each move. Better scorers rank the played move first more
+// often, which gives shorter codes.
+//
+// Games can only be decoded with the scorer they were encoded with. Caches
+// that store move indexes (MoveCache, OpeningCache) are bound to one
+// scorer. Results in a DecodeCache remember the scorer they were decoded
+// with, and are only reused by contexts with the same scorer.
+public interface MoveScorer {
+    // Scores a legal move of the side to move (turn). Higher scores get
+    // lower indexes. us, them and pawns are bitboards of the position before
+    // the move. Castling moves are given as the king moving to the square of
+    // the rook.
+    //
+    // Scores must be unique for every move in the position, because move
+    // ordering should never depend on implementation details of the
+    // generator. Using from and to as the least significant bits ensures
+    // that.
+    int score(boolean turn, long us, long them, long pawns, Role role, int from, boolean capture, int to, Role promotion);
+
+    // The scorer of the built-in format: promotions, captures, squares not
+    // defended by pawns, and piece-square table gains, in that order.
+    MoveScorer DEFAULT = new PsqtMoveScorer();
+}
@@ -0,0 +1,232 @@
+package org.lichess.compression.game;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.lichess.compression.BitReader;
+
+// Trie of decoded opening positions, shared by all decoders. Each edge is a
+// move index, so walking the trie follows the Huffman coded bit prefix of a
+// game. Nodes keep the board, SAN and position hash after the move, so hot
+// opening lines are decoded only once.
+//
+// Safe for concurrent use. Nodes are immutable once published, and
+// children are added with compare-and-set. When the cache is full, branches
+// that were not used since the previous sweep are dropped. Sweeps run at
+// most once every capacity / 4 misses of a full cache, so that in-flight
+// walks keep their paths.
+//
+// The size only changes when a compare-and-set that inserts or removes a
+// single node succeeds. Removed nodes are sealed (their empty child slots
+// are set to DEAD), so nothing can be attached below a node that is no
+// longer in the trie. Concurrent inserts may briefly exceed the capacity
+// by the number of decoding threads.
+//
+// Edges are move indexes, so a cache is only valid for one scorer. Like a
+// MoveCache it is bound to a scorer, and walks with a context that orders
+// moves differently are rejected.
+public class OpeningCache {
+    private final int maxPlies;
+    private final int capacity;
+    private final int sweepInterval;
+    private final MoveScorer scorer;
+
+    // Contexts with the scorer of the cache, for callers that do not bring
+    // their own.
+    final CodecContext.Pool contexts;
+
+    final Node root;
+
+    private final AtomicInteger size = new AtomicInteger(1);
+    private final AtomicInteger missesSinceSweep = new AtomicInteger(0);
+    private final AtomicBoolean sweeping = new AtomicBoolean(false);
+    private volatile int epoch = 0;
+
+    // Marks the child slots of removed nodes.
+    private static final Node DEAD = new Node(null, 0, new Board(), 0, null, null, false, false);
+
+    // Caches at most capacity positions, up to maxPlies deep.
+    public OpeningCache(int maxPlies, int capacity) {
+        this(maxPlies, capacity, MoveScorer.DEFAULT);
+    }
+
+    // Caches positions of games encoded with the given scorer.
+    public OpeningCache(int maxPlies, int capacity, MoveScorer scorer) {
+        this.maxPlies = maxPlies;
+        this.capacity = capacity;
+        this.sweepInterval = Math.max(1, capacity / 4);
+        this.scorer = scorer;
+        this.contexts = new CodecContext.Pool(2 * Runtime.getRuntime().availableProcessors(), scorer);
+
+        MoveList legals = new MoveList();
+        Board board = new Board();
+        board.legalMoves(legals);
+        this.root = new Node(null, 0, board, legals.size(), null, null, false, false);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public MoveScorer scorer() {
+        return scorer;
+    }
+
+    static final class Node {
+        final Node parent;
+        final int ply;
+
+        // Position after the move. Never modified.
+        final Board board;
+        final int hash;
+
+        // The move that led here.
+        final String san;
+        final String uci;
+        final boolean zeroing;
+        final boolean irreversible;
+
+        // Indexed by move index in the sorted legal moves.
+        final AtomicReferenceArray<Node> children;
+
+        volatile int epoch;
+
+        Node(Node parent, int ply, Board board, int numLegals, String san, String uci, boolean zeroing, boolean irreversible) {
+            this.parent = parent;
+            this.ply = ply;
+            this.board = board;
+            this.hash = board.zobristHash();
+            this.san = san;
+            this.uci = uci;
+            this.zeroing = zeroing;
+            this.irreversible = irreversible;
+            this.children = new AtomicReferenceArray<Node>(numLegals);
+        }
+    }
+
+    // Number of nodes reachable from the root. Walks the whole trie.
+    int count() {
+        return count(root);
+    }
+
+    // Reads moves from the reader as long as they are in the cache, adding
+    // missing positions up to maxPlies. Returns the deepest node reached.
+    // This may be a node that could not be cached, which ends the walk.
+    Node walk(CodecContext context, BitReader reader, int plies) {
+        if (context.scorer() != scorer) {
+            throw new IllegalArgumentException("context does not use the scorer of the opening cache");
+        }
+
+        Node node = root;
+        touch(node);
+
+        int limit = Math.min(plies, maxPlies);
+        while (node.ply < limit) {
+            int index = Huffman.read(reader);
+            if (index >= node.children.length()) {
+                throw new IllegalArgumentException("invalid move index " + index + " at ply " + node.ply);
+            }
+
+            Node child = node.children.get(index);
+            if (child == null || child == DEAD) {
+                child = expand(context, node, index);
+                if (child.parent.children.get(index) != child) return child;
+            }
+            touch(child);
+            node = child;
+        }
+
+        return node;
+    }
+
+    private void touch(Node node) {
+        // Avoid writing to shared cache lines when nothing changes.
+        int currentEpoch = epoch;
+        if (node.epoch != currentEpoch) node.epoch = currentEpoch;
+    }
+
+    // Returns the cached child, or a new node that is not attached to the
+    // trie if the cache is full or the parent was removed.
+    private Node expand(CodecContext context, Node parent, int index) {
+        MoveList legals = context.legals;
+        context.legalMoves(parent.board);
+        Move move = legals.get(index);
+
+        String san = Encoder.san(move, legals);
+        String uci = move.uci();
+        boolean zeroing = move.isZeroing();
+        boolean irreversible = move.isIrreversible();
+
+        Board board = new Board(parent.board);
+        board.play(move);
+        context.legalMoves(board);
+        if (board.isCheck()) san += legals.isEmpty() ? "#" : "+";
+
+        Node child = new Node(parent, parent.ply + 1, board, legals.size(), san, uci, zeroing, irreversible);
+
+        if (size.get() >= capacity) {
+            if (missesSinceSweep.incrementAndGet() >= sweepInterval) sweep();
+            // Still full: use the node for this game only.
+            if (size.get() >= capacity) return child;
+        }
+
+        if (parent.children.compareAndSet(index, null, child)) {
+            size.incrementAndGet();
+            return child;
+        }
+
+        Node existing = parent.children.get(index);
+        return existing == null || existing == DEAD ? child : existing;
+    }
+
+    // Drops all branches that were not used since the previous sweep.
+    private void sweep() {
+        if (!sweeping.compareAndSet(false, true)) return;
+        try {
+            missesSinceSweep.set(0);
+            int previous = epoch;
+            epoch = previous + 1;
+            evict(root, previous);
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private void evict(Node node, int previous) {
+        for (int i = 0; i < node.children.length(); i++) {
+            Node child = node.children.get(i);
+            if (child == null || child == DEAD) continue;
+            if (child.epoch < previous) {
+                if (node.children.compareAndSet(i, child, null)) remove(child);
+            } else {
+                evict(child, previous);
+            }
+        }
+    }
+
+    // Accounts for a node that was just unlinked from its parent, and seals
+    // and removes its children.
+    private void remove(Node node) {
+        size.decrementAndGet();
+        for (int i = 0; i < node.children.length(); i++) {
+            while (true) {
+                Node child = node.children.get(i);
+                if (child == DEAD) break;
+                if (node.children.compareAndSet(i, child, DEAD)) {
+                    if (child != null) remove(child);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int count(Node node) {
+        int count = 1;
+        for (int i = 0; i < node.children.length(); i++) {
+            Node child = node.children.get(i);
+            if (child != null && child != DEAD) count += count(child);
+        }
+        return count;
+    }
+}
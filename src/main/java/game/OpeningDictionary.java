@@ -0,0 +1,211 @@
+package org.lichess.compression.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+import org.lichess.compression.game.Encoder.DecodeResult;
+
+// A game codec with a dictionary of common opening lines. Each game starts
+// with one canonical Huffman code, naming the longest line of the
+// dictionary that the game begins with (or none). The rest of the game
+// follows with the codes of Encoder.
+//
+// The decoder starts from the precomputed position, moves and hashes at
+// the end of the line, instead of replaying it.
+//
+// There is no built-in dictionary. A dictionary is trained data, so it
+// carries its own codec id, which is saved with it by rows(). Games can
+// only be decoded by the dictionary they were encoded with: give every
+// retrained dictionary a new id, and register it with GameCodecs.
+public final class OpeningDictionary implements GameCodec {
+    public static final int MAX_LINES = CanonicalHuffman.SYMBOLS - 1;
+
+    private final int id;
+    private final DecodeResult lines[];
+    private final byte encoded[][];
+    private final int lengths[];
+    private final CanonicalHuffman code;
+    private final Node root = new Node();
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<String, Node>();
+        int line = -1;
+    }
+
+    // Lines in SAN, and code lengths for each line: lengths[0] is for games
+    // that start with none of the lines, lengths[i + 1] for line i.
+    public OpeningDictionary(int id, List<String[]> lines, int lengths[]) {
+        if (id < 0 || id > GameCodecs.MAX_ID) throw new IllegalArgumentException("codec id out of range: " + id);
+        if (lines.isEmpty() || lines.size() > MAX_LINES) throw new IllegalArgumentException("need 1 to " + MAX_LINES + " lines");
+        if (lengths.length != lines.size() + 1) throw new IllegalArgumentException("need " + (lines.size() + 1) + " code lengths");
+
+        this.id = id;
+        this.lines = new DecodeResult[lines.size()];
+        this.encoded = new byte[lines.size()][];
+        this.lengths = lengths.clone();
+        this.code = new CanonicalHuffman(lengths);
+
+        CodecContext context = new CodecContext();
+        for (int i = 0; i < lines.size(); i++) {
+            String line[] = lines.get(i);
+            if (line.length == 0) throw new IllegalArgumentException("empty line");
+            encoded[i] = Encoder.encode(context, line);
+            if (encoded[i] == null) throw new IllegalArgumentException("illegal line: " + String.join(" ", line));
+            this.lines[i] = Encoder.decode(context, encoded[i], line.length);
+
+            Node node = root;
+            for (String san: line) node = node.children.computeIfAbsent(key(san), k -> new Node());
+            if (node.line < 0) node.line = i;
+        }
+    }
+
+    // Picks the maxLines lines of at most maxPlies moves that the games
+    // spend the most bits on, and fits the codes to how often each line is
+    // used.
+    public static OpeningDictionary train(int id, List<String[]> games, int maxLines, int maxPlies) {
+        Trie trie = new Trie();
+        for (String game[]: games) trie.add(game, maxPlies);
+
+        List<String[]> candidates = new ArrayList<String[]>();
+        List<Long> gains = new ArrayList<Long>();
+        CodecContext context = new CodecContext();
+        trie.candidates(trie.root, new ArrayList<String>(), context, candidates, gains);
+
+        Integer order[] = new Integer[candidates.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(gains.get(b), gains.get(a)));
+
+        List<String[]> lines = new ArrayList<String[]>();
+        for (int i = 0; i < Math.min(maxLines, Math.min(order.length, MAX_LINES)); i++) lines.add(candidates.get(order[i]));
+        if (lines.isEmpty()) throw new IllegalArgumentException("no line is shared by two games");
+
+        // Fit the codes to the lines that are actually used.
+        long counts[] = new long[lines.size() + 1];
+        OpeningDictionary untrained = new OpeningDictionary(id, lines, HuffmanTrainer.codeLengths(counts, CanonicalHuffman.MAX_BITS));
+        for (String game[]: games) counts[untrained.longestLine(game) + 1]++;
+        return new OpeningDictionary(id, lines, HuffmanTrainer.codeLengths(counts, CanonicalHuffman.MAX_BITS));
+    }
+
+    // Reads the format of rows(): the codec id, the code length for games
+    // without a line, then one row per line with its code length and moves.
+    public static OpeningDictionary parse(List<String> rows) {
+        if (rows.size() < 2) throw new IllegalArgumentException("empty dictionary");
+        int id = Integer.parseInt(rows.get(0).trim());
+        int lengths[] = new int[rows.size() - 1];
+        List<String[]> lines = new ArrayList<String[]>();
+        for (int i = 1; i < rows.size(); i++) {
+            String fields[] = rows.get(i).trim().split("\\s+");
+            lengths[i - 1] = Integer.parseInt(fields[0]);
+            if (i > 1) lines.add(Arrays.copyOfRange(fields, 1, fields.length));
+        }
+        return new OpeningDictionary(id, lines, lengths);
+    }
+
+    public List<String> rows() {
+        List<String> rows = new ArrayList<String>();
+        rows.add(Integer.toString(id));
+        rows.add(Integer.toString(lengths[0]));
+        for (int i = 0; i < lines.length; i++) rows.add(lengths[i + 1] + " " + String.join(" ", lines[i].pgnMoves));
+        return rows;
+    }
+
+    // Counts how many games start with each line.
+    private static final class Trie {
+        final TrieNode root = new TrieNode(null);
+
+        void add(String game[], int maxPlies) {
+            TrieNode node = root;
+            for (int i = 0; i < Math.min(game.length, maxPlies); i++) {
+                String san = game[i];
+                node = node.children.computeIfAbsent(key(san), k -> new TrieNode(san));
+                node.count++;
+            }
+        }
+
+        // Lines that at least two games start with, and the bits those
+        // games spend on them.
+        void candidates(TrieNode node, List<String> line, CodecContext context, List<String[]> candidates, List<Long> gains) {
+            for (TrieNode child: node.children.values()) {
+                if (child.count < 2) continue;
+                line.add(child.san);
+                String moves[] = line.toArray(new String[0]);
+                BitWriter writer = context.writer;
+                writer.reset();
+                if (Encoder.encode(context, moves, writer)) {
+                    candidates.add(moves);
+                    gains.add(child.count * writer.bitLength());
+                    candidates(child, line, context, candidates, gains);
+                }
+                line.remove(line.size() - 1);
+            }
+        }
+    }
+
+    private static final class TrieNode {
+        final String san;
+        final Map<String, TrieNode> children = new HashMap<String, TrieNode>();
+        long count = 0;
+
+        TrieNode(String san) {
+            this.san = san;
+        }
+    }
+
+    public int size() {
+        return lines.length;
+    }
+
+    // The line in SAN, with check suffixes.
+    public String[] line(int i) {
+        return lines[i].pgnMoves.clone();
+    }
+
+    public int[] lengths() {
+        return lengths.clone();
+    }
+
+    // Index of the longest line that the game starts with, or -1.
+    public int longestLine(String pgnMoves[]) {
+        Node node = root;
+        int line = -1;
+        for (String san: pgnMoves) {
+            node = node.children.get(key(san));
+            if (node == null) break;
+            if (node.line >= 0) line = node.line;
+        }
+        return line;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public boolean encode(CodecContext context, String pgnMoves[], BitWriter writer) {
+        int line = longestLine(pgnMoves);
+        code.write(line + 1, writer);
+        if (line < 0) return Encoder.encode(context, pgnMoves, writer);
+        return Encoder.encode(context, lines[line], pgnMoves, writer, Encoder.HUFFMAN);
+    }
+
+    public DecodeResult decode(CodecContext context, BitReader reader, int plies) {
+        int line = code.read(reader) - 1;
+        if (line < 0) return Encoder.decode(context, reader, plies);
+        if (plies < lines[line].pgnMoves.length) {
+            // Only part of the line was asked for.
+            return Encoder.decode(context, new BitReader(encoded[line]), plies);
+        }
+        return Encoder.decode(context, reader, lines[line], plies, Encoder.HUFFMAN);
+    }
+
+    // SAN without check suffix and annotations.
+    private static String key(String san) {
+        int end = san.length();
+        while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0) end--;
+        return san.substring(0, end);
+    }
+}
@@ -0,0 +1,91 @@
+package org.lichess.compression.game;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// The exact bit prefix shared by all encoded games that start with the
+// given moves. Encoding is deterministic from the initial position, so
+// games can be filtered by opening without decoding them.
+//
+// Bits after the end of an encoded game are zero padding. A game shorter
+// than the prefix can therefore match by accident, so also check that the
+// game has at least plies moves.
+public class OpeningPrefix {
+    // Order in which encoded games must be sorted for lowerBound() and
+    // upperBound().
+    public static final Comparator<byte[]> ORDER = new Comparator<byte[]>() {
+        public int compare(byte a[], byte b[]) {
+            return Arrays.compareUnsigned(a, b);
+        }
+    };
+
+    public final int plies;
+    public final int bits;
+    private final byte bytes[];
+
+    private OpeningPrefix(int plies, int bits, byte bytes[]) {
+        this.plies = plies;
+        this.bits = bits;
+        this.bytes = bytes;
+    }
+
+    // Returns null if the moves are not legal.
+    public static OpeningPrefix of(String pgnMoves[]) {
+        CodecContext context = CodecContext.acquire();
+        try {
+            byte bytes[] = Encoder.encode(context, pgnMoves);
+            if (bytes == null) return null;
+            return new OpeningPrefix(pgnMoves.length, context.writer.bitLength(), bytes);
+        } finally {
+            CodecContext.release(context);
+        }
+    }
+
+    // Compares the first bits of an encoded game with this prefix, treating
+    // missing bytes as zero. Negative if the game sorts before all games
+    // with this prefix, zero if it has this prefix, and positive otherwise.
+    public int compareTo(byte encoded[]) {
+        int fullBytes = bits >>> 3;
+        for (int i = 0; i < fullBytes; i++) {
+            int diff = byteAt(encoded, i) - (bytes[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+
+        int remainingBits = bits & 7;
+        if (remainingBits == 0) return 0;
+        int mask = (0xff00 >>> remainingBits) & 0xff;
+        return (byteAt(encoded, fullBytes) & mask) - (bytes[fullBytes] & mask);
+    }
+
+    public boolean matches(byte encoded[]) {
+        return compareTo(encoded) == 0;
+    }
+
+    // Index of the first game in the sorted array that has this prefix or
+    // sorts after it.
+    public int lowerBound(byte[][] sorted) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareTo(sorted[mid]) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Index of the first game in the sorted array that sorts after all games
+    // with this prefix.
+    public int upperBound(byte[][] sorted) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareTo(sorted[mid]) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int byteAt(byte encoded[], int i) {
+        return i < encoded.length ? encoded[i] & 0xff : 0;
+    }
+}
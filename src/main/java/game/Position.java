@@ -0,0 +1,199 @@
+package org.lichess.compression.game;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+import org.lichess.compression.VarIntEncoder;
+
+// Immutable snapshot of a board, with enough information to write a FEN.
+public class Position {
+    public final long pawns;
+    public final long knights;
+    public final long bishops;
+    public final long rooks;
+    public final long queens;
+    public final long kings;
+
+    public final long white;
+    public final long black;
+
+    public final boolean turn;
+    public final int epSquare;
+    public final long castlingRights;
+
+    public final int halfMoveClock;
+    public final int fullMoveNumber;
+
+    Position(Board board, int halfMoveClock, int ply) {
+        this.pawns = board.pawns;
+        this.knights = board.knights;
+        this.bishops = board.bishops;
+        this.rooks = board.rooks;
+        this.queens = board.queens;
+        this.kings = board.kings;
+
+        this.white = board.white;
+        this.black = board.black;
+
+        this.turn = board.turn;
+        // Only keep the en passant square if it can actually be used.
+        this.epSquare = board.hasLegalEnPassant() ? board.epSquare : 0;
+        this.castlingRights = board.castlingRights;
+
+        this.halfMoveClock = halfMoveClock;
+        this.fullMoveNumber = ply / 2 + 1;
+    }
+
+    private Position(long pawns, long knights, long bishops, long rooks, long queens, long kings,
+                     long white, long black,
+                     boolean turn, int epSquare, long castlingRights,
+                     int halfMoveClock, int fullMoveNumber) {
+        this.pawns = pawns;
+        this.knights = knights;
+        this.bishops = bishops;
+        this.rooks = rooks;
+        this.queens = queens;
+        this.kings = kings;
+
+        this.white = white;
+        this.black = black;
+
+        this.turn = turn;
+        this.epSquare = epSquare;
+        this.castlingRights = castlingRights;
+
+        this.halfMoveClock = halfMoveClock;
+        this.fullMoveNumber = fullMoveNumber;
+    }
+
+    // Compact binary form: the occupancy, then 4 bits per piece in square
+    // order (color and role), side to move, castling rights on the four
+    // corners, en passant file and move counters. About 25 bytes in the
+    // middlegame.
+    public void write(BitWriter writer) {
+        long occupied = white | black;
+        for (int shift = 48; shift >= 0; shift -= 16) {
+            writer.writeBits((int) (occupied >>> shift), 16);
+        }
+
+        while (occupied != 0) {
+            int sq = Bitboard.lsb(occupied);
+            writer.writeBits((Bitboard.contains(white, sq) ? 8 : 0) | roleAt(sq).index, 4);
+            occupied &= occupied - 1L;
+        }
+
+        writer.writeBits(turn ? 1 : 0, 1);
+        writer.writeBits(
+            (Bitboard.contains(castlingRights, Square.A1) ? 8 : 0) |
+            (Bitboard.contains(castlingRights, Square.H1) ? 4 : 0) |
+            (Bitboard.contains(castlingRights, Square.A8) ? 2 : 0) |
+            (Bitboard.contains(castlingRights, Square.H8) ? 1 : 0), 4);
+        writer.writeBits(epSquare == 0 ? 0 : 8 | Square.file(epSquare), 4);
+
+        VarIntEncoder.writeUnsigned(halfMoveClock, writer);
+        VarIntEncoder.writeUnsigned(fullMoveNumber, writer);
+    }
+
+    public static Position read(BitReader reader) {
+        long occupied = 0;
+        for (int i = 0; i < 4; i++) {
+            occupied = (occupied << 16) | reader.readBits(16);
+        }
+
+        long roles[] = new long[6];
+        long white = 0, black = 0;
+        while (occupied != 0) {
+            int sq = Bitboard.lsb(occupied);
+            long mask = 1L << sq;
+            int piece = reader.readBits(4);
+            roles[piece & 7] |= mask;
+            if ((piece & 8) != 0) white |= mask;
+            else black |= mask;
+            occupied &= occupied - 1L;
+        }
+
+        boolean turn = reader.readBits(1) != 0;
+        int castling = reader.readBits(4);
+        long castlingRights =
+            ((castling & 8) != 0 ? 1L << Square.A1 : 0) |
+            ((castling & 4) != 0 ? 1L << Square.H1 : 0) |
+            ((castling & 2) != 0 ? 1L << Square.A8 : 0) |
+            ((castling & 1) != 0 ? 1L << Square.H8 : 0);
+        int ep = reader.readBits(4);
+        int epSquare = ep == 0 ? 0 : Square.square(ep & 7, turn ? 5 : 2);
+
+        int halfMoveClock = VarIntEncoder.readUnsigned(reader);
+        int fullMoveNumber = VarIntEncoder.readUnsigned(reader);
+
+        return new Position(roles[0], roles[1], roles[2], roles[3], roles[4], roles[5],
+                            white, black, turn, epSquare, castlingRights,
+                            halfMoveClock, fullMoveNumber);
+    }
+
+    public int ply() {
+        return 2 * (fullMoveNumber - 1) + (turn ? 0 : 1);
+    }
+
+    Board toBoard() {
+        return new Board(pawns, knights, bishops, rooks, queens, kings,
+                         white, black, turn, epSquare, castlingRights);
+    }
+
+    public String fen() {
+        StringBuilder builder = new StringBuilder(90);
+
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int sq = Square.square(file, rank);
+                char c = pieceChar(sq);
+                if (c == 0) {
+                    empty++;
+                } else {
+                    if (empty > 0) builder.append(empty);
+                    empty = 0;
+                    builder.append(c);
+                }
+            }
+            if (empty > 0) builder.append(empty);
+            if (rank > 0) builder.append('/');
+        }
+
+        builder.append(turn ? " w " : " b ");
+
+        int length = builder.length();
+        if (Bitboard.contains(castlingRights, Square.H1)) builder.append('K');
+        if (Bitboard.contains(castlingRights, Square.A1)) builder.append('Q');
+        if (Bitboard.contains(castlingRights, Square.H8)) builder.append('k');
+        if (Bitboard.contains(castlingRights, Square.A8)) builder.append('q');
+        if (builder.length() == length) builder.append('-');
+
+        builder.append(' ');
+        if (epSquare != 0) {
+            builder.append((char) (Square.file(epSquare) + 'a'));
+            builder.append((char) (Square.rank(epSquare) + '1'));
+        } else {
+            builder.append('-');
+        }
+
+        builder.append(' ').append(halfMoveClock);
+        builder.append(' ').append(fullMoveNumber);
+        return builder.toString();
+    }
+
+    private Role roleAt(int square) {
+        if (Bitboard.contains(pawns, square)) return Role.PAWN;
+        if (Bitboard.contains(knights, square)) return Role.KNIGHT;
+        if (Bitboard.contains(bishops, square)) return Role.BISHOP;
+        if (Bitboard.contains(rooks, square)) return Role.ROOK;
+        if (Bitboard.contains(queens, square)) return Role.QUEEN;
+        if (Bitboard.contains(kings, square)) return Role.KING;
+        return null;
+    }
+
+    private char pieceChar(int square) {
+        Role role = roleAt(square);
+        if (role == null) return 0;
+        char c = role == Role.PAWN ? 'p' : Character.toLowerCase(role.symbol.charAt(0));
+        return Bitboard.contains(white, square) ? Character.toUpperCase(c) : c;
+    }
+}
@@ -0,0 +1,88 @@
+package org.lichess.compression.game;
+
+// The move ordering of the built-in format.
+final class PsqtMoveScorer implements MoveScorer {
+    public int score(boolean turn, long us, long them, long pawns, Role role, int from, boolean capture, int to, Role promotion) {
+        // Assign higher scores to moves that are more likely to be played.
+
+        long defendingPawns =
+            Bitboard.pawnAttacks(turn, to) &
+            pawns &
+            them;
+
+        int moveValue = pieceValue(turn, role, to) - pieceValue(turn, role, from);
+
+        return
+            (promotion == null ? 0 : promotion.index << 26) +
+            (capture ? 1 << 25 : 0) +
+            ((defendingPawns == 0 ? 6 : (5 - role.index)) << 22) +
+            (512 + moveValue << 12) +
+            (to << 6) +
+            from;
+    }
+
+    // Piece-Square table with some manual tweaks (breaking symmetry).
+    //
+    // Original table taken from:
+    // https://github.com/flok99/feeks/blob/f02e4897555ac08497a5fea43f241bad30f2ecff/psq.py#L8-L67
+
+    private static int pieceValue(boolean turn, Role role, int square) {
+        return PSQT[role.index][turn ? Square.mirror(square) : square];
+    }
+
+    private static final int PSQT[][] = {
+        {   0,  0,  0,  0,  0,  0,  0,  0,
+           50, 50, 50, 50, 50, 50, 50, 50,
+           10, 10, 20, 30, 30, 20, 10, 10,
+            5,  5, 10, 25, 25, 10,  5,  5,
+            0,  0,  0, 20, 21,  0,  0,  0,
+            5, -5,-10,  0,  0,-10, -5,  5,
+            5, 10, 10,-31,-31, 10, 10,  5,
+            0,  0,  0,  0,  0,  0,  0,  0 },
+
+        { -50,-40,-30,-30,-30,-30,-40,-50,
+          -40,-20,  0,  0,  0,  0,-20,-40,
+          -30,  0, 10, 15, 15, 10,  0,-30,
+          -30,  5, 15, 20, 20, 15,  5,-30,
+          -30,  0, 15, 20, 20, 15,  0,-30,
+          -30,  5, 10, 15, 15, 11,  5,-30,
+          -40,-20,  0,  5,  5,  0,-20,-40,
+          -50,-40,-30,-30,-30,-30,-40,-50 },
+
+        { -20,-10,-10,-10,-10,-10,-10,-20,
+          -10,  0,  0,  0,  0,  0,  0,-10,
+          -10,  0,  5, 10, 10,  5,  0,-10,
+          -10,  5,  5, 10, 10,  5,  5,-10,
+          -10,  0, 10, 10, 10, 10,  0,-10,
+          -10, 10, 10, 10, 10, 10, 10,-10,
+          -10,  5,  0,  0,  0,  0,  5,-10,
+          -20,-10,-10,-10,-10,-10,-10,-20 },
+
+        {   0,  0,  0,  0,  0,  0,  0,  0,
+            5, 10, 10, 10, 10, 10, 10,  5,
+           -5,  0,  0,  0,  0,  0,  0, -5,
+           -5,  0,  0,  0,  0,  0,  0, -5,
+           -5,  0,  0,  0,  0,  0,  0, -5,
+           -5,  0,  0,  0,  0,  0,  0, -5,
+           -5,  0,  0,  0,  0,  0,  0, -5,
+            0,  0,  0,  5,  5,  0,  0,  0 },
+
+        { -20,-10,-10, -5, -5,-10,-10,-20,
+          -10,  0,  0,  0,  0,  0,  0,-10,
+          -10,  0,  5,  5,  5,  5,  0,-10,
+           -5,  0,  5,  5,  5,  5,  0, -5,
+            0,  0,  5,  5,  5,  5,  0, -5,
+          -10,  5,  5,  5,  5,  5,  0,-10,
+          -10,  0,  5,  0,  0,  0,  0,-10,
+          -20,-10,-10, -5, -5,-10,-10,-20 },
+
+        { -30,-40,-40,-50,-50,-40,-40,-30,
+          -30,-40,-40,-50,-50,-40,-40,-30,
+          -30,-40,-40,-50,-50,-40,-40,-30,
+          -30,-40,-40,-50,-50,-40,-40,-30,
+          -20,-30,-30,-40,-40,-30,-30,-20,
+          -10,-20,-20,-20,-20,-20,-20,-10,
+           20, 20,  0,  0,  0,  0, 20, 20,
+            0, 30, 10,  0,  0, 10, 30,  0 }
+    };
+}
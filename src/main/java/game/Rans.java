@@ -0,0 +1,203 @@
+package org.lichess.compression.game;
+
+import org.lichess.compression.BitReader;
+import org.lichess.compression.BitWriter;
+import org.lichess.compression.IntArrayList;
+
+// Entropy coding of move indexes with two interleaved rANS states, as an
+// alternative to Huffman codes. Symbols can cost fractional bits, and the
+// frequencies are renormalized for the number of legal moves, using the
+// same contexts as ContextHuffman (forced moves take no bits).
+//
+// rANS encodes in reverse, so the encoder first collects all move indexes
+// and then writes them at once. The decoder reads forward, one move at a
+// time. In games of at least INTERLEAVE_PLIES plies, even symbols use the
+// first state and odd symbols the second, so that consecutive decode steps
+// do not depend on each other. Flushing a state takes STATE_BYTES (3)
+// bytes, about 2 more than the information it carries, so shorter games use
+// a single state.
+public final class Rans {
+    static final int SCALE_BITS = 15;
+    static final int M = 1 << SCALE_BITS;
+
+    // Lower bound of the state. Byte-wise renormalization keeps states in
+    // [L, 256 L), so flushing a state takes 3 bytes.
+    static final int L_BITS = 16;
+    static final int L = 1 << L_BITS;
+    static final int STATE_BYTES = (L_BITS + 8) / 8;
+
+    // Interleaving only pays for the extra state in long games.
+    static final int INTERLEAVE_PLIES = 160;
+
+    // Decoding first looks up a symbol for the top bits of the slot, and
+    // then scans forward.
+    private static final int LOOKUP_BITS = 10;
+
+    // Frequencies of move indexes in 16,232,215 rated games, from the
+    // comments of Huffman.CODES. Higher indexes occurred at most once.
+    private static final long FREQUENCIES[] = {
+        225883932, 134956126, 89041269, 69386238, 57040790, 44974559, 36547155, 31624920,
+        28432772, 26540493, 24484873, 23058034, 23535272, 20482457, 20450172, 18316057,
+        17214833, 16964761, 16530028, 15369510, 14178440, 14275714, 13353306, 12829602,
+        13102592, 11932647, 10608657, 10142459, 8294594, 7337490, 6337744, 5380717,
+        4560556, 3913313, 3038767, 2480514, 1951026, 1521451, 1183252, 938708,
+        673339, 513153, 377299, 276996, 199682, 144602, 103313, 73046,
+        52339, 36779, 26341, 18719, 13225, 9392, 6945, 4893,
+        3698, 2763, 2114, 1631, 1380, 1090, 887, 715,
+        590, 549, 477, 388, 351, 319, 262, 236,
+        200, 210, 153, 117, 121, 121, 115, 95,
+        75, 67, 55, 50, 55, 33, 33, 30,
+        32, 28, 29, 27, 21, 15, 9, 10,
+        12, 12, 8, 7, 2, 4, 5, 5,
+        1, 5, 1, 1, 1, 1, 2,
+    };
+
+    public static final Rans DEFAULT = new Rans(defaultCounts());
+
+    private final int freq[][] = new int[ContextHuffman.CONTEXTS][];
+    private final int cumFreq[][] = new int[ContextHuffman.CONTEXTS][];
+    private final byte lookup[][] = new byte[ContextHuffman.CONTEXTS][];
+
+    // Fits frequency tables to the counts of each context, as collected by
+    // HuffmanTrainer.contextCounts().
+    public Rans(long counts[][]) {
+        for (int context = 0; context < ContextHuffman.CONTEXTS; context++) {
+            int size = ContextHuffman.bucketSize(context);
+            if (size < 2) continue;
+
+            int f[] = normalize(counts[context], size);
+            int cum[] = new int[size + 1];
+            for (int i = 0; i < size; i++) cum[i + 1] = cum[i] + f[i];
+
+            byte table[] = new byte[1 << LOOKUP_BITS];
+            int symbol = 0;
+            for (int k = 0; k < table.length; k++) {
+                int slot = k << (SCALE_BITS - LOOKUP_BITS);
+                while (cum[symbol + 1] <= slot) symbol++;
+                table[k] = (byte) symbol;
+            }
+
+            freq[context] = f;
+            cumFreq[context] = cum;
+            lookup[context] = table;
+        }
+    }
+
+    // Scales counts to sum to M, keeping every index possible.
+    private static int[] normalize(long counts[], int size) {
+        long total = 0;
+        for (int i = 0; i < size; i++) total += counts[i];
+
+        int f[] = new int[size];
+        int sum = 0, largest = 0;
+        for (int i = 0; i < size; i++) {
+            f[i] = 1 + (int) (total == 0 ? 0 : counts[i] * (M - size) / total);
+            sum += f[i];
+            if (f[i] > f[largest]) largest = i;
+        }
+        f[largest] += M - sum;
+        return f;
+    }
+
+    private static long[][] defaultCounts() {
+        long counts[][] = new long[ContextHuffman.CONTEXTS][CanonicalHuffman.SYMBOLS];
+        for (long context[]: counts) {
+            System.arraycopy(FREQUENCIES, 0, context, 0, FREQUENCIES.length);
+        }
+        return counts;
+    }
+
+    private static int lanes(int plies) {
+        return plies < INTERLEAVE_PLIES ? 1 : 2;
+    }
+
+    // Collects move indexes while encoding a game.
+    final class Writer implements MoveIndexEncoder {
+        private final int lanes;
+
+        // Context << 8 | index, for moves that are not forced.
+        private final IntArrayList symbols = new IntArrayList(256);
+
+        Writer(int plies) {
+            this.lanes = lanes(plies);
+        }
+
+        public void write(int index, int numLegals, boolean check, BitWriter writer) {
+            if (numLegals > 1) symbols.add(ContextHuffman.context(numLegals, check) << 8 | index);
+        }
+
+        // Writes the collected moves.
+        void flush(BitWriter writer) {
+            int n = symbols.size();
+            if (n == 0) return;
+
+            // At most 2 bytes per symbol, written backwards.
+            int capacity = 2 * n + lanes * STATE_BYTES;
+            byte buffer[] = new byte[capacity];
+            int position = capacity;
+
+            int states[] = new int[lanes];
+            for (int lane = 0; lane < lanes; lane++) states[lane] = L;
+
+            for (int i = n - 1; i >= 0; i--) {
+                int symbol = symbols.get(i);
+                int context = symbol >>> 8, index = symbol & 0xff;
+                int f = freq[context][index];
+                int x = states[i % lanes];
+
+                int xMax = ((L >>> SCALE_BITS) << 8) * f;
+                while (x >= xMax) {
+                    buffer[--position] = (byte) x;
+                    x >>>= 8;
+                }
+                states[i % lanes] = ((x / f) << SCALE_BITS) + (x % f) + cumFreq[context][index];
+            }
+
+            for (int lane = lanes - 1; lane >= 0; lane--) {
+                for (int b = 0; b < STATE_BYTES; b++) {
+                    buffer[--position] = (byte) (states[lane] >>> (8 * b));
+                }
+            }
+
+            for (int i = position; i < capacity; i++) writer.writeBits(buffer[i] & 0xff, 8);
+        }
+    }
+
+    // Decodes move indexes one at a time, in the order they were encoded.
+    final class Reader implements MoveIndexDecoder {
+        private final int states[];
+        private int count = -1;
+
+        Reader(int plies) {
+            this.states = new int[lanes(plies)];
+        }
+
+        public int read(int numLegals, boolean check, BitReader reader) {
+            if (numLegals <= 1) return 0;
+
+            if (count < 0) {
+                for (int lane = 0; lane < states.length; lane++) {
+                    int x = 0;
+                    for (int b = 0; b < STATE_BYTES; b++) x = x << 8 | reader.readBits(8);
+                    states[lane] = x;
+                }
+                count = 0;
+            }
+
+            int lane = count++ % states.length;
+            int context = ContextHuffman.context(numLegals, check);
+            int cum[] = cumFreq[context];
+
+            int x = states[lane];
+            int slot = x & (M - 1);
+            int index = lookup[context][slot >>> (SCALE_BITS - LOOKUP_BITS)] & 0xff;
+            while (cum[index + 1] <= slot) index++;
+
+            x = freq[context][index] * (x >>> SCALE_BITS) + slot - cum[index];
+            while (x < L) x = x << 8 | reader.readBits(8);
+            states[lane] = x;
+
+            return index;
+        }
+    }
+}
@@ -78,5 +78,28 @@ class BinaryClockHistoryTest extends Specification {
       }
       restored must beLike(times)
     }
+
+    "decode versioned and legacy bytes" in {
+      val times = Array(5009, 4321, 2999, 321, 3044, 21, 2055, 77)
+      val legacy = Encoder.encode(times, 6000)
+      val versioned = ClockCodecs.encode(ClockCodecs.ESTIMATORS, times, 6000)
+      ClockCodecs.decode(legacy, 6000) must_== Encoder.decode(legacy, 6000)
+      ClockCodecs.decode(versioned, 6000) must_== Encoder.decode(legacy, 6000)
+      ClockCodecs.decode(ClockCodecs.encode(ClockCodecs.ESTIMATORS, Array.empty[Int], 6000), 6000) must beEmpty
+    }
+
+    "encode and decode many histories in parallel" in {
+      val startTimes = Array.tabulate(500)(i => 6000 + 100 * (i % 7))
+      val centis = Array.tabulate(500) { i =>
+        Array.tabulate(i % 40)(t => startTimes(i) - 37 * t - (i * t) % 23)
+      }
+      val encoded = Encoder.encodeAll(centis, startTimes)
+      val decoded = Encoder.decodeAll(encoded, startTimes)
+      val sequential = centis.indices.map(i => Encoder.encode(centis(i), startTimes(i)).toList)
+      (encoded.map(_.toList).toList must_== sequential.toList) and
+        forall(centis.indices) { i =>
+          decoded(i).iterator.map(Centis.apply).to(Vector) must beLike(centis(i).iterator.map(Centis.apply).to(Vector))
+        }
+    }
   }
 }
@@ -0,0 +1,135 @@
+package org.lichess.compression
+
+import java.util.concurrent.{ CountDownLatch, Executors, Flow, SubmissionPublisher, TimeUnit }
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.specs2.matcher.ThrownExpectations
+import org.specs2.mutable._
+
+class CodecProcessorTest extends Specification with ThrownExpectations {
+
+  def fn[A, B](f: A => B): java.util.function.Function[A, B] =
+    new java.util.function.Function[A, B] { def apply(a: A) = f(a) }
+
+  // Records everything it receives and requests initial items up front.
+  class Collector(initial: Long) extends Flow.Subscriber[String] {
+    val items = new java.util.concurrent.CopyOnWriteArrayList[String]
+    @volatile var subscription: Flow.Subscription = null
+    @volatile var error: Throwable = null
+    val done = new CountDownLatch(1)
+
+    def onSubscribe(s: Flow.Subscription): Unit = {
+      subscription = s
+      if (initial > 0) s.request(initial)
+    }
+    def onNext(item: String): Unit = items.add(item)
+    def onError(e: Throwable): Unit = {
+      error = e
+      done.countDown()
+    }
+    def onComplete(): Unit = done.countDown()
+
+    def received: List[String] = items.toArray(Array.empty[String]).toList
+  }
+
+  def pipe(processor: CodecProcessor[String, String], collector: Collector, pool: java.util.concurrent.Executor) = {
+    val publisher = new SubmissionPublisher[String](pool, 64)
+    publisher.subscribe(processor)
+    processor.subscribe(collector)
+    publisher
+  }
+
+  "codec processor" should {
+    "publish in input order when tasks finish out of order" in {
+      val pool = Executors.newFixedThreadPool(4)
+      val latches = Array.fill(4)(new CountDownLatch(1))
+      val processor = new CodecProcessor[String, String](fn { (s: String) =>
+        latches(s.toInt).await()
+        s"r$s"
+      }, 4, 4, pool)
+      val collector = new Collector(Long.MaxValue)
+      val publisher = pipe(processor, collector, pool)
+      (0 to 3).foreach(i => publisher.submit(i.toString))
+      publisher.close()
+      (3 to 0 by -1).foreach { i =>
+        Thread.sleep(10)
+        latches(i).countDown()
+      }
+      collector.done.await(10, TimeUnit.SECONDS) must beTrue
+      pool.shutdown()
+      collector.error must beNull
+      collector.received must_== List("r0", "r1", "r2", "r3")
+    }
+
+    "never publish more than was requested" in {
+      val pool = Executors.newFixedThreadPool(4)
+      val applied = new AtomicInteger
+      val processor = new CodecProcessor[String, String](fn { (s: String) =>
+        applied.incrementAndGet()
+        s
+      }, 2, 4, pool)
+      val collector = new Collector(2)
+      val publisher = pipe(processor, collector, pool)
+      (0 until 20).foreach(i => publisher.submit(i.toString))
+      publisher.close()
+      // The buffer fills up with the initial 4 items plus one per published item.
+      while (applied.get < 6) Thread.sleep(1)
+      Thread.sleep(50)
+      collector.received must_== List("0", "1")
+      applied.get must_== 6
+      collector.done.getCount must_== 1L
+
+      collector.subscription.request(5)
+      while (collector.items.size < 7) Thread.sleep(1)
+      Thread.sleep(50)
+      collector.items.size must_== 7
+
+      collector.subscription.request(100)
+      collector.done.await(10, TimeUnit.SECONDS) must beTrue
+      pool.shutdown()
+      collector.error must beNull
+      collector.received must_== (0 until 20).map(_.toString).toList
+    }
+
+    "propagate onError from upstream" in {
+      val pool = Executors.newFixedThreadPool(2)
+      val processor = new CodecProcessor[String, String](fn((s: String) => s), 2, 4, pool)
+      val collector = new Collector(Long.MaxValue)
+      val publisher = pipe(processor, collector, pool)
+      publisher.submit("a")
+      publisher.closeExceptionally(new IllegalStateException("upstream"))
+      collector.done.await(10, TimeUnit.SECONDS) must beTrue
+      pool.shutdown()
+      collector.error must beAnInstanceOf[IllegalStateException]
+    }
+
+    "fail the stream when the function throws" in {
+      val pool = Executors.newFixedThreadPool(2)
+      val processor = new CodecProcessor[String, String](fn { (s: String) =>
+        if (s == "3") throw new IllegalArgumentException(s)
+        s
+      }, 2, 4, pool)
+      val collector = new Collector(Long.MaxValue)
+      val publisher = pipe(processor, collector, pool)
+      (0 until 6).foreach(i => publisher.submit(i.toString))
+      publisher.close()
+      collector.done.await(10, TimeUnit.SECONDS) must beTrue
+      pool.shutdown()
+      collector.error must beAnInstanceOf[IllegalArgumentException]
+      collector.received.contains("3") must beFalse
+    }
+
+    "propagate onComplete" in {
+      val pool = Executors.newFixedThreadPool(2)
+      val processor = new CodecProcessor[String, String](fn((s: String) => s), 2, 4, pool)
+      val collector = new Collector(1)
+      val publisher = pipe(processor, collector, pool)
+      publisher.submit("a")
+      publisher.close()
+      collector.done.await(10, TimeUnit.SECONDS) must beTrue
+      pool.shutdown()
+      collector.error must beNull
+      collector.received must_== List("a")
+    }
+  }
+}
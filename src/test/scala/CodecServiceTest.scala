@@ -0,0 +1,111 @@
+package org.lichess.compression
+
+import java.util.concurrent.{ CountDownLatch, ExecutionException, RejectedExecutionException, TimeUnit }
+
+import org.specs2.matcher.ThrownExpectations
+import org.specs2.mutable._
+
+class CodecServiceTest extends Specification with ThrownExpectations {
+
+  // Occupies a worker until released, ignoring interrupts from close().
+  def block(service: CodecService, started: CountDownLatch, release: CountDownLatch) =
+    service.submit[String] { _ =>
+      started.countDown()
+      var interrupted = false
+      while (release.getCount > 0) {
+        try release.await()
+        catch { case _: InterruptedException => interrupted = true }
+      }
+      if (interrupted) Thread.currentThread.interrupt()
+      "done"
+    }
+
+  def failure(future: java.util.concurrent.CompletableFuture[_]): Throwable =
+    try {
+      future.get(10, TimeUnit.SECONDS)
+      null
+    } catch { case e: ExecutionException => e.getCause }
+
+  val pgnMoves = "e4 e5 Nf3 Nc6 Bb5".split(" ")
+
+  "codec service" should {
+    "coalesce queued requests into one batch" in {
+      val service = new CodecService(1, 64, 8, 0)
+      val started = new CountDownLatch(1)
+      val release = new CountDownLatch(1)
+      val blocked = block(service, started, release)
+      started.await()
+      val futures = (1 to 8).map(_ => service.encodeGame(pgnMoves))
+      release.countDown()
+      blocked.get(10, TimeUnit.SECONDS) must_== "done"
+      forall(futures) { future =>
+        future.get(10, TimeUnit.SECONDS) must_== game.Encoder.encode(pgnMoves)
+      }
+      service.batches must_== 2L
+      service.close()
+      ok
+    }
+
+    "not count the wakeup on close as a batch" in {
+      val service = new CodecService(2, 64, 8, 0)
+      service.encodeGame(pgnMoves).get(10, TimeUnit.SECONDS) must_== game.Encoder.encode(pgnMoves)
+      service.close()
+      // Give the interrupted workers time to leave their loop.
+      Thread.sleep(50)
+      service.batches must_== 1L
+    }
+
+    "reject requests when the queue is full" in {
+      val service = new CodecService(1, 2, 8, 0)
+      val started = new CountDownLatch(1)
+      val release = new CountDownLatch(1)
+      block(service, started, release)
+      started.await()
+      val queued = (1 to 2).map(_ => service.encodeGame(pgnMoves))
+      val rejected = service.encodeGame(pgnMoves)
+      failure(rejected) must beAnInstanceOf[RejectedExecutionException]
+      release.countDown()
+      forall(queued) { future =>
+        future.get(10, TimeUnit.SECONDS) must_== game.Encoder.encode(pgnMoves)
+      }
+      service.close()
+      ok
+    }
+
+    "propagate errors to the caller" in {
+      val service = new CodecService(2, 64, 8, 0)
+      failure(service.submit[String](_ => throw new IllegalStateException("boom"))) must beAnInstanceOf[IllegalStateException]
+      failure(service.submit[String](_ => throw new StackOverflowError())) must beAnInstanceOf[StackOverflowError]
+      // The other worker still serves requests.
+      service.encodeGame(pgnMoves).get(10, TimeUnit.SECONDS) must_== game.Encoder.encode(pgnMoves)
+      service.close()
+      ok
+    }
+
+    "close itself when the last worker died" in {
+      val service = new CodecService(1, 64, 8, 0)
+      failure(service.submit[String](_ => throw new StackOverflowError())) must beAnInstanceOf[StackOverflowError]
+      // The worker closes the service right after failing the request.
+      var rejected: Throwable = null
+      while (rejected == null) {
+        rejected = failure(service.encodeGame(pgnMoves))
+        if (rejected == null) Thread.sleep(1)
+      }
+      rejected must beAnInstanceOf[RejectedExecutionException]
+    }
+
+    "fail pending requests on close" in {
+      val service = new CodecService(1, 64, 8, 0)
+      val started = new CountDownLatch(1)
+      val release = new CountDownLatch(1)
+      val running = block(service, started, release)
+      started.await()
+      val pending = service.encodeGame(pgnMoves)
+      service.close()
+      release.countDown()
+      failure(pending) must beAnInstanceOf[RejectedExecutionException]
+      running.get(10, TimeUnit.SECONDS) must_== "done"
+      failure(service.encodeGame(pgnMoves)) must beAnInstanceOf[RejectedExecutionException]
+    }
+  }
+}
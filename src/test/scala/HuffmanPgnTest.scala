@@ -1,8 +1,11 @@
 package org.lichess.compression.game
 
+import org.specs2.matcher.ThrownExpectations
 import org.specs2.mutable._
 
-class HuffmanPgnTest extends Specification {
+import org.lichess.compression.{ DecodeCache, GameRecord, clock }
+
+class HuffmanPgnTest extends Specification with ThrownExpectations {
 
   def hexToBytes(str: String) =
     str.grouped(2).map(cc => Integer.parseInt(cc, 16).toByte).toArray
@@ -20,6 +23,271 @@ class HuffmanPgnTest extends Specification {
       }
     }
 
+    "compress and decompress in bulk" in {
+      val games = fixtures.map(_.split(" "))
+      import scala.jdk.CollectionConverters._
+      val encoded = Encoder.encodeAll(games.asJava)
+      val decoded = Encoder.decodeAll(encoded, games.map(_.size).toArray)
+      decoded.map(_.pgnMoves.toList).toList must_== games.map(_.toList)
+    }
+
+    "reuse an explicit codec context" in {
+      val context = new CodecContext
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = Encoder.encode(context, pgnMoves)
+        encoded must_== Encoder.encode(pgnMoves)
+        Encoder.decode(context, encoded, pgnMoves.size).pgnMoves must_== pgnMoves
+      }
+    }
+
+    "find openings by bit prefix" in {
+      val games = fixtures.map(_.split(" "))
+      val sorted = games.map(Encoder.encode).sortWith(OpeningPrefix.ORDER.compare(_, _) < 0).toArray
+      val prefix = OpeningPrefix.of("e4 c5".split(" "))
+      val found = sorted.slice(prefix.lowerBound(sorted), prefix.upperBound(sorted))
+      found.size must_== games.count(_.take(2).toList == List("e4", "c5"))
+      forall(found.toList) { encoded =>
+        Encoder.decode(encoded, 2).pgnMoves.toList must_== List("e4", "c5")
+      }
+    }
+
+    "decode through shared opening cache" in {
+      val cache = new OpeningCache(12, 64)
+      forall(fixtures ++ fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = Encoder.encode(pgnMoves)
+        val cached = Encoder.decode(encoded, pgnMoves.size, cache)
+        val decoded = Encoder.decode(encoded, pgnMoves.size)
+        cached.pgnMoves must_== decoded.pgnMoves
+        cached.positionHashes must_== decoded.positionHashes
+        cached.halfMoveClock must_== decoded.halfMoveClock
+        cached.lastUci must_== decoded.lastUci
+      }
+    }
+
+    "keep opening cache size exact under concurrent eviction" in {
+      val cache = new OpeningCache(16, 200)
+      val games = fixtures.map(_.split(" "))
+      val encoded = games.map(Encoder.encode)
+      val pool = java.util.concurrent.Executors.newFixedThreadPool(8)
+      val tasks = (0 until 8).map { seed =>
+        pool.submit(new java.util.concurrent.Callable[Boolean] {
+          def call() = {
+            val random = new scala.util.Random(seed)
+            (0 until 2000).forall { _ =>
+              val i = random.nextInt(games.size)
+              Encoder.decode(encoded(i), games(i).size, cache).pgnMoves.sameElements(games(i))
+            }
+          }
+        })
+      }
+      val results = tasks.map(_.get)
+      pool.shutdown()
+      results.forall(identity) must beTrue
+      cache.size must_== cache.count
+      cache.count must be_>(1)
+    }
+
+    "share sorted legal moves through move cache" in {
+      val cache = new MoveCache(1024)
+      val context = new CodecContext(cache)
+      forall(fixtures ++ fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = Encoder.encode(context, pgnMoves)
+        encoded must_== Encoder.encode(pgnMoves)
+        Encoder.decode(context, encoded, pgnMoves.size).pgnMoves must_== pgnMoves
+      }
+      cache.hits must be_>(0L)
+    }
+
+    "extend cached results of shorter games" in {
+      val cache = new DecodeCache[Encoder.DecodeResult](1 << 20)
+      forall(fixtures.take(10)) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        forall(0 to pgnMoves.size) { plies =>
+          val encoded = Encoder.encode(pgnMoves.take(plies))
+          val cached = Encoder.decode(encoded, plies, cache)
+          val decoded = Encoder.decode(encoded, plies)
+          cached.pgnMoves must_== decoded.pgnMoves
+          cached.positionHashes must_== decoded.positionHashes
+          cached.halfMoveClock must_== decoded.halfMoveClock
+        }
+      }
+      // Each lookup is one hit, prefix hit or miss.
+      val lookups = fixtures.take(10).map(_.split(" ").size + 1).sum.toLong
+      cache.hits + cache.prefixHits + cache.misses must_== lookups
+      cache.prefixHits must be_>(cache.misses)
+    }
+
+    "keep sibling games that differ in the last byte cached" in {
+      val cache = new DecodeCache[Encoder.DecodeResult](1 << 20)
+      val siblings = List("e4 e5 Nf3", "e4 e5 Nc3").map(_.split(" "))
+      val encoded = siblings.map(Encoder.encode)
+      encoded(0).size must_== encoded(1).size
+      forall(0 until 6) { i =>
+        Encoder.decode(encoded(i % 2), 3, cache).pgnMoves must_== siblings(i % 2)
+      }
+      cache.hits must_== 4L
+      cache.misses must_== 2L
+    }
+
+    "decode versioned and legacy bytes" in {
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val legacy = Encoder.encode(pgnMoves)
+        val versioned = GameCodecs.encode(GameCodecs.HUFFMAN, pgnMoves)
+        GameCodecs.codecOf(legacy) must_== GameCodecs.HUFFMAN
+        GameCodecs.decode(legacy, pgnMoves.size).pgnMoves must_== pgnMoves
+        GameCodecs.decode(versioned, pgnMoves.size).pgnMoves must_== pgnMoves
+      }
+    }
+
+    "store moves and clocks in one record" in {
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val white = Array.tabulate((pgnMoves.size + 1) / 2)(i => 18000 - 100 * i)
+        val black = Array.tabulate(pgnMoves.size / 2)(i => 9000 - 50 * i)
+        val record = GameRecord.decode(GameRecord.encode(pgnMoves, white, black, 18000, 9000))
+        record.plies must_== pgnMoves.size
+        record.moves.pgnMoves must_== pgnMoves
+        record.whiteCentis must_== clock.Encoder.decode(clock.Encoder.encode(white, 18000), 18000)
+        record.blackCentis must_== clock.Encoder.decode(clock.Encoder.encode(black, 9000), 9000)
+        record.blackStartTime must_== 9000
+      }
+    }
+
+    "walk games packed back-to-back" in {
+      val games = fixtures.map(_.split(" "))
+      val writer = new GameStream.Writer()
+      games.foreach(writer.add)
+      val reader = new GameStream.Reader(writer.toArray)
+      forall(games) { pgnMoves =>
+        reader.next().pgnMoves must_== pgnMoves
+      }
+      reader.next() must beNull
+    }
+
+    "train length limited huffman codes" in {
+      val trainer = new HuffmanTrainer()
+      // The illegal game is skipped and not counted.
+      trainer.addAll(java.util.Arrays.asList((fixtures.map(_.split(" ")) :+ Array("e5")): _*))
+      trainer.games must_== fixtures.size.toLong
+      val lengths = HuffmanTrainer.codeLengths(trainer.counts, 16)
+      lengths.max must be_<=(16)
+      lengths.map(l => math.pow(2, -l)).sum must beCloseTo(1.0, 1e-9)
+      trainer.counts.sum must_== fixtures.map(_.split(" ").size).sum
+    }
+
+    "encode with canonical codes" in {
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = GameCodecs.encode(GameCodecs.CANONICAL, pgnMoves)
+        GameCodecs.codecOf(encoded) must_== GameCodecs.CANONICAL
+        GameCodecs.decode(encoded, pgnMoves.size).pgnMoves must_== pgnMoves
+      }
+    }
+
+    "limit canonical codes at a small cost" in {
+      val context = new CodecContext()
+      def bits(encode: org.lichess.compression.BitWriter => Boolean) = {
+        val writer = new org.lichess.compression.BitWriter()
+        encode(writer) must beTrue
+        writer.bitLength.toLong
+      }
+      val games = fixtures.map(_.split(" "))
+      val huffman = games.map(pgnMoves => bits(Encoder.encode(context, pgnMoves, _))).sum
+      val canonical = games.map(pgnMoves => bits(GameCodecs.CANONICAL.encode(context, pgnMoves, _))).sum
+      canonical.toDouble must be_<(huffman * 1.005)
+    }
+
+    "encode with context dependent tables" in {
+      val trainer = new HuffmanTrainer(true)
+      trainer.addAll(java.util.Arrays.asList(fixtures.map(_.split(" ")): _*))
+      val fitted = ContextHuffman.fit(trainer.contextCounts, 16)
+      HuffmanTrainer.bitsPerMove(trainer.contextCounts, fitted) must be_<(HuffmanTrainer.bitsPerMove(trainer.counts, HuffmanTrainer.currentLengths))
+      val codec = GameCodecs.contextHuffman(GameCodecs.MAX_ID, fitted)
+      val context = new CodecContext()
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = GameCodecs.encode(codec, pgnMoves)
+        codec.decode(context, new org.lichess.compression.BitReader(encoded, 8), pgnMoves.size).pgnMoves must_== pgnMoves
+      }
+    }
+
+    "encode with rANS" in {
+      val rans = GameCodecs.rans(GameCodecs.MAX_ID, Rans.DEFAULT)
+      val context = new CodecContext()
+      forall(fixtures :+ "") { pgn =>
+        val pgnMoves = pgn.split(" ").filter(_.nonEmpty)
+        val encoded = GameCodecs.encode(rans, pgnMoves)
+        rans.decode(context, new org.lichess.compression.BitReader(encoded, 8), pgnMoves.size).pgnMoves must_== pgnMoves
+      }
+    }
+
+    "encode with move history" in {
+      val history = GameCodecs.history(GameCodecs.MAX_ID)
+      val context = new CodecContext()
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = GameCodecs.encode(history, pgnMoves)
+        history.decode(context, new org.lichess.compression.BitReader(encoded, 8), pgnMoves.size).pgnMoves must_== pgnMoves
+      }
+    }
+
+    "encode with custom move scorer" in {
+      val scorer: MoveScorer = (turn, us, them, pawns, role, from, capture, to, promotion) =>
+        (if (capture) 1 << 20 else 0) + (to << 6) + from
+      val context = new CodecContext(scorer)
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = Encoder.encode(context, pgnMoves)
+        Encoder.decode(context, encoded, pgnMoves.size).pgnMoves must_== pgnMoves
+      }
+    }
+
+    "bind decode caches to the move scorer" in {
+      val scorer: MoveScorer = (turn, us, them, pawns, role, from, capture, to, promotion) =>
+        (if (capture) 1 << 20 else 0) + (to << 6) + from
+      val context = new CodecContext(scorer)
+      val openings = new OpeningCache(12, 200, scorer)
+      val results = new DecodeCache[Encoder.DecodeResult](1 << 20)
+      val pgnMoves = "e4 e5 Nf3 Nc6 Bb5 a6".split(" ")
+      val encoded = Encoder.encode(context, pgnMoves)
+      val plain = Encoder.encode(pgnMoves)
+      Encoder.decode(plain, pgnMoves.size, results).pgnMoves must_== pgnMoves
+      // Same bytes, but moves are ordered by another scorer.
+      val other = Encoder.decode(context, plain, pgnMoves.size).pgnMoves
+      (Encoder.decode(context, plain, pgnMoves.size, results).pgnMoves must_== other) and
+        (Encoder.decode(encoded, pgnMoves.size, openings).pgnMoves must_== pgnMoves) and
+        (Encoder.decode(new CodecContext, encoded, pgnMoves.size, openings) must throwA[IllegalArgumentException])
+    }
+
+    "encode with opening dictionary" in {
+      val games = java.util.Arrays.asList(fixtures.map(_.split(" ")): _*)
+      val dictionary = OpeningDictionary.train(5, games, 255, 20)
+      OpeningDictionary.parse(dictionary.rows).rows must_== dictionary.rows
+      val context = new CodecContext()
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = GameCodecs.encode(dictionary, pgnMoves)
+        // The header names the id of the dictionary.
+        (encoded(0) & 0xff) must_== (0xf8 | 5)
+        val line = dictionary.longestLine(pgnMoves)
+        val linePlies = if (line < 0) 0 else dictionary.line(line).size
+        // Includes prefixes shorter than the matched line.
+        forall(List(0, 1, linePlies - 1, linePlies, pgnMoves.size).filter(p => p >= 0 && p <= pgnMoves.size)) { plies =>
+          val expected = Encoder.decode(Encoder.encode(pgnMoves), plies)
+          val decoded = dictionary.decode(context, new org.lichess.compression.BitReader(encoded, 8), plies)
+          decoded.pgnMoves must_== expected.pgnMoves
+          decoded.positionHashes must_== expected.positionHashes
+          decoded.halfMoveClock must_== expected.halfMoveClock
+          decoded.lastUci must_== expected.lastUci
+        }
+      }
+      fixtures.map(_.split(" ")).exists(pgnMoves => dictionary.longestLine(pgnMoves) >= 0 && dictionary.line(dictionary.longestLine(pgnMoves)).size > 1) must beTrue
+    }
+
     "stable format" in {
       forall(v1 zip fixtures) { case (encoded, pgn) =>
         val pgnMoves = pgn.split(" ")
@@ -44,6 +312,25 @@ class HuffmanPgnTest extends Specification {
 
       val d2 = Encoder.decode(encoded, pgnMoves.size)
       d2.unmovedRooks.asScala must_== Set(0, 7, 56)
+      d2.unmovedRooksMask must_== 0x0100000000000081L
+    }
+
+    "piece bitboards" in {
+      val decoded = Encoder.decode(Encoder.encode("e4 d5 exd5".split(" ")), 3)
+      val bitboards = decoded.pieceBitboards
+      bitboards(0) must_== 0x00f700080000ef00L
+      bitboards(6) | bitboards(7) must_== bitboards.take(6).reduce(_ | _)
+      decoded.pieces.size must_== 31
+    }
+
+    "build a decode result from boxed pieces" in {
+      val pgnMoves = "e4 a6 e5 d5".split(" ")
+      val decoded = Encoder.decode(Encoder.encode(pgnMoves), pgnMoves.size)
+      val rebuilt = new Encoder.DecodeResult(decoded.pgnMoves, decoded.pieces, decoded.unmovedRooks,
+        decoded.halfMoveClock, decoded.positionHashes, decoded.lastUci)
+      (rebuilt.pieceBitboards.toList must_== decoded.pieceBitboards.toList) and
+        (rebuilt.unmovedRooksMask must_== decoded.unmovedRooksMask) and
+        (rebuilt.pieces must be(decoded.pieces))
     }
 
     "half-move clock" in {
@@ -64,6 +351,53 @@ class HuffmanPgnTest extends Specification {
       Option(decoded.lastUci) must_== Some("f6e6")
     }
 
+    "visit moves" in {
+      val pgnMoves = "e4 e5 Qh5 Nc6 Bc4 Nf6 Qxf7#".split(" ")
+      val encoded = Encoder.encode(pgnMoves)
+      val visited = new scala.collection.mutable.ArrayBuffer[String]
+      Encoder.decode(encoded, pgnMoves.size, new GameVisitor {
+        def visitMove(ply: Int, from: Int, to: Int, role: Role, promotion: Role, capture: Boolean, check: Boolean, index: Int): Unit =
+          visited += s"$ply:$from-$to:${role.symbol}:$capture:$check"
+      })
+      visited.toList must_== List("0:12-28::false:false", "1:52-36::false:false", "2:3-39:Q:false:false", "3:57-42:N:false:false", "4:5-26:B:false:false", "5:62-45:N:false:false", "6:39-53:Q:true:true")
+    }
+
+    "write pgn movetext" in {
+      val pgnMoves = "e4 e5 Qh5 Nc6 Bc4 Nf6 Qxf7#".split(" ")
+      val encoded = Encoder.encode(pgnMoves)
+      val buffer = java.nio.ByteBuffer.allocate(256)
+      Encoder.writePgn(encoded, pgnMoves.size, buffer)
+      new String(buffer.array, 0, buffer.position, "US-ASCII") must_== "1. e4 e5 2. Qh5 Nc6 3. Bc4 Nf6 4. Qxf7#"
+
+      val out = new java.io.ByteArrayOutputStream
+      Encoder.writePgn(encoded, 6, out)
+      out.toString("US-ASCII") must_== "1. e4 e5 2. Qh5 Nc6 3. Bc4 Nf6"
+    }
+
+    "decode position" in {
+      val pgnMoves = "e4 c5 Nf3 d6 d4 cxd4 Nxd4 Nf6 Nc3 a6 Be2 e5 Nb3 Be7 O-O O-O a4".split(" ")
+      val encoded = Encoder.encode(pgnMoves)
+      Encoder.decodePosition(encoded, 0).fen must_== "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1"
+      Encoder.decodePosition(encoded, 3).fen must_== "rnbqkbnr/pp1ppppp/8/2p5/4P3/5N2/PPPP1PPP/RNBQKB1R b KQkq - 1 2"
+      Encoder.decodePosition(encoded, pgnMoves.size).fen must_== "rnbq1rk1/1p2bppp/p2p1n2/4p3/P3P3/1NN5/1PP1BPPP/R1BQ1RK1 b - - 0 9"
+    }
+
+    "decode position with en passant" in {
+      val encoded = Encoder.encode("e4 d5 e5 f5".split(" "))
+      Encoder.decodePosition(encoded, 4).fen must_== "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3"
+    }
+
+    "seek with checkpoints" in {
+      forall(fixtures) { pgn =>
+        val pgnMoves = pgn.split(" ")
+        val encoded = Encoder.encode(pgnMoves)
+        val checkpoints = Checkpoints.fromBytes(Encoder.checkpoints(encoded, pgnMoves.size, 8).toBytes)
+        forall(0 to pgnMoves.size by 5) { ply =>
+          Encoder.decodePosition(encoded, ply, checkpoints).fen must_== Encoder.decodePosition(encoded, ply).fen
+        }
+      }
+    }
+
     "position hash 1. e4 d5 2. e5 f5 3. Ke2 Kf7" in {
       val pgnMoves = "e4 d5 e5 f5 Ke2 Kf7".split(" ")
       val encoded = Encoder.encode(pgnMoves)
@@ -0,0 +1,82 @@
+package org.lichess.compression.archive
+
+import java.io.{ ByteArrayInputStream, ByteArrayOutputStream }
+import java.nio.channels.Channels
+
+import org.specs2.mutable._
+
+class PgnReaderTest extends Specification {
+
+  def reader(pgn: String) =
+    new PgnReader(Channels.newChannel(new ByteArrayInputStream(pgn.getBytes("UTF-8"))), 16)
+
+  "pgn reader" should {
+
+    "read tags, moves and clocks" in {
+      val r = reader("""[Event "Rated Blitz game"]
+[White "José"]
+[TimeControl "180+2"]
+
+1. e4 { [%clk 0:03:00] } 1... e5 { [%clk 0:02:59.5] } 2. Nf3?! $6 { [%clk 0:02:58] } (2. f4 exf4 { gambit }) Nc6 { [%clk 0:01:02] } 1-0
+
+[Event "Second"]
+
+1. d4 d5 *
+""")
+      val first = r.next()
+      first.tags.get("White") must_== "José"
+      first.moves.toList must_== List("e4", "e5", "Nf3", "Nc6")
+      first.clocks.toList must_== List(18000, 17950, 17800, 6200)
+      PgnImport.startTime(first.tags, first.clocks) must_== 18000
+
+      val second = r.next()
+      second.tags.get("Event") must_== "Second"
+      second.moves.toList must_== List("d4", "d5")
+      second.clocks must beNull
+
+      r.next() must beNull
+    }
+
+    "skip move numbers without a dot" in {
+      val game = reader("""[Event "Sloppy"]
+
+1 e4 e5 2 Nf3 Nc6 12 Bb5 *
+""").next()
+      game.moves.toList must_== List("e4", "e5", "Nf3", "Nc6", "Bb5")
+    }
+
+    "export what was imported" in {
+      val pgn = """[Event "Casual"]
+[Result "0-1"]
+
+1. f3 { [%clk 0:01:00] } e5 { [%clk 0:01:00] } 2. g4 { [%clk 0:00:58] } Qh4# { [%clk 0:00:57] } 0-1
+"""
+      val record = PgnImport.encode(reader(pgn).next())
+      new String(PgnExport.pgn(record), "UTF-8") must_== """[Event "Casual"]
+[Result "0-1"]
+
+1. f3 { [%clk 0:01:00] } 1... e5 { [%clk 0:01:00] } 2. g4 { [%clk 0:00:58] } 2... Qh4# { [%clk 0:00:57] } 0-1
+
+"""
+    }
+
+    "reject records that do not fit the archive" in {
+      val tags = new java.util.LinkedHashMap[String, String]
+      tags.put("Event", "Long")
+      val out = new ByteArrayOutputStream
+      val writer = new Archive.Writer(Channels.newChannel(out))
+      val moves = org.lichess.compression.game.Encoder.encode(Array("e4"))
+      val tooManyPlies = new Archive.Record(tags, 70000, moves, -1, Array.empty[Byte], Array.empty[Byte])
+      val tooLong = new Archive.Record(tags, 1, new Array[Byte](70000), -1, Array.empty[Byte], Array.empty[Byte])
+      val fits = new Archive.Record(tags, 1, moves, -1, Array.empty[Byte], Array.empty[Byte])
+      writer.write(tooManyPlies) must throwA[IllegalArgumentException]
+      writer.write(tooLong) must throwA[IllegalArgumentException]
+      writer.write(fits)
+      writer.close()
+
+      val r = new Archive.Reader(Channels.newChannel(new ByteArrayInputStream(out.toByteArray)))
+      val record = r.read()
+      (record.plies must_== 1) and (record.moves.toList must_== moves.toList) and (r.read() must beNull)
+    }
+  }
+}